@@ -0,0 +1,49 @@
+package com.shuffle.turtleget;
+
+/**
+ * Copy buffer that starts small and doubles, up to a limit, while the source
+ * keeps filling it, so fast links end up with large reads and slow ones don't
+ * hold large arrays. Once it stops growing no more memory is allocated.
+ */
+class AdaptiveBuffer {
+
+	static final int FULL_READS_TO_GROW = 4;
+
+	private final int maxSize;
+
+	private byte[] buffer;
+
+	private int fullReads;
+
+	public AdaptiveBuffer(int initialSize, int maxSize) {
+		this.maxSize = Math.max(initialSize, maxSize);
+		this.buffer = new byte[initialSize];
+	}
+
+	public AdaptiveBuffer(TransferSettings settings) {
+		this(settings.getBufferSize(), settings.getMaxBufferSize());
+	}
+
+	public byte[] array() {
+		return buffer;
+	}
+
+	public int size() {
+		return buffer.length;
+	}
+
+	/**
+	 * Tells the buffer how many bytes the last read returned, it may grow for
+	 * the next one
+	 *
+	 * @param numBytes
+	 */
+	public void filled(int numBytes) {
+		if (numBytes < buffer.length) {
+			fullReads = 0;
+		} else if (++fullReads >= FULL_READS_TO_GROW && buffer.length < maxSize) {
+			buffer = new byte[(int) Math.min((long) buffer.length * 2, maxSize)];
+			fullReads = 0;
+		}
+	}
+}
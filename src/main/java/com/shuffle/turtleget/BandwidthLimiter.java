@@ -0,0 +1,72 @@
+package com.shuffle.turtleget;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bandwidth caps of a {@link TurtleGet}, one for all the downloads together
+ * and optional ones per host (<code>scheme://host:port</code>). Caps are in
+ * bytes per second, 0 means unlimited, and changes apply to running downloads
+ * right away.
+ */
+public class BandwidthLimiter {
+
+	private final TokenBucket global = new TokenBucket(0);
+
+	private final TokenBucket window = new TokenBucket(0);
+
+	private final Map<String, TokenBucket> hosts = new ConcurrentHashMap<>();
+
+	public long getLimit() {
+		return global.getRate();
+	}
+
+	public void setLimit(long bytesPerSecond) {
+		global.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * Cap set by the open {@link TransferWindow}s, on top of the global one
+	 *
+	 * @return
+	 */
+	public long getWindowLimit() {
+		return window.getRate();
+	}
+
+	void setWindowLimit(long bytesPerSecond) {
+		window.setRate(bytesPerSecond);
+	}
+
+	public long getHostLimit(String host) {
+		TokenBucket bucket = hosts.get(host);
+		return bucket == null ? 0 : bucket.getRate();
+	}
+
+	/**
+	 * Caps every download reading from the host
+	 *
+	 * @param host
+	 *            as <code>scheme://host:port</code>, e.g.
+	 *            <code>ftp://example.com:21</code>
+	 * @param bytesPerSecond
+	 */
+	public void setHostLimit(String host, long bytesPerSecond) {
+		host(host).setRate(bytesPerSecond);
+	}
+
+	private TokenBucket host(String host) {
+		return hosts.computeIfAbsent(host, h -> new TokenBucket(0));
+	}
+
+	/**
+	 * Buckets the download has to go through, its own, its host's, the global
+	 * one and the transfer window's
+	 *
+	 * @param download
+	 * @return
+	 */
+	Throttle throttleFor(Download download) {
+		return new Throttle(download, download.getBandwidthBucket(), host(download.getHost()), global, window);
+	}
+}
@@ -0,0 +1,122 @@
+package com.shuffle.turtleget;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Copy buffers shared by all the downloads of a {@link TurtleGet}, with a cap
+ * on the memory they take together. Taking a buffer waits while the cap is
+ * reached, which is what slows the readers down when the disks fall behind.
+ *
+ * Returned buffers are kept for reuse as long as they fit under the cap too.
+ */
+public class BufferPool {
+
+	public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+	private final Map<Integer, Deque<byte[]>> free = new HashMap<>();
+
+	private long capacity;
+
+	private long used;
+
+	private long pooled;
+
+	public BufferPool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public BufferPool(long capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Bytes all the buffers in use and kept for reuse can take
+	 *
+	 * @return
+	 */
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	public synchronized void setCapacity(long capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		notifyAll();
+	}
+
+	/**
+	 * Bytes of the buffers taken and not returned yet
+	 *
+	 * @return
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	/**
+	 * Takes a buffer, waiting for others to be returned if the cap would be
+	 * passed. A buffer larger than the cap is still given when none is in
+	 * use.
+	 *
+	 * @param size
+	 * @return a buffer of exactly that size
+	 * @throws InterruptedException
+	 */
+	public synchronized byte[] acquire(int size) throws InterruptedException {
+		while (used > 0 && used + size > capacity) {
+			wait();
+		}
+		used += size;
+		Deque<byte[]> buffers = free.get(size);
+		byte[] buffer = buffers != null ? buffers.poll() : null;
+		if (buffer != null) {
+			pooled -= size;
+			return buffer;
+		}
+		evict(size);
+		return new byte[size];
+	}
+
+	/**
+	 * Gives back a buffer taken with {@link #acquire(int)}
+	 *
+	 * @param buffer
+	 */
+	public synchronized void release(byte[] buffer) {
+		used -= buffer.length;
+		if (used + pooled + buffer.length <= capacity) {
+			free.computeIfAbsent(buffer.length, size -> new ArrayDeque<>()).push(buffer);
+			pooled += buffer.length;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Drops kept buffers of other sizes to make room for a new one
+	 *
+	 * @param size
+	 */
+	private void evict(int size) {
+		Iterator<Deque<byte[]>> iterator = free.values().iterator();
+		while (used + pooled > capacity && iterator.hasNext()) {
+			Deque<byte[]> buffers = iterator.next();
+			while (used + pooled > capacity && !buffers.isEmpty()) {
+				pooled -= buffers.pop().length;
+			}
+			if (buffers.isEmpty()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BufferPool [capacity=" + capacity + ", used=" + used + ", pooled=" + pooled + "]";
+	}
+}
@@ -0,0 +1,41 @@
+package com.shuffle.turtleget;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digests a download can be verified with, the sidecar extension is the file
+ * looked up next to the source, e.g. <code>file.iso.sha256</code>
+ */
+public enum ChecksumAlgorithm {
+
+	CRC32C("CRC32C", ".crc32c"), MD5("MD5", ".md5"), SHA_256("SHA-256", ".sha256");
+
+	private final String algorithmName;
+
+	private final String extension;
+
+	private ChecksumAlgorithm(String algorithmName, String extension) {
+		this.algorithmName = algorithmName;
+		this.extension = extension;
+	}
+
+	public String getAlgorithmName() {
+		return algorithmName;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+
+	MessageDigest newDigest() {
+		if (this == CRC32C) {
+			return new Crc32cDigest();
+		}
+		try {
+			return MessageDigest.getInstance(algorithmName);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(algorithmName + " is not available", e);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.shuffle.turtleget;
+
+import java.security.MessageDigest;
+
+/**
+ * CRC32C (Castagnoli) as a {@link MessageDigest}, java.util.zip only has it
+ * from Java 9. Slicing by 8, the digest is the 4 byte big endian CRC.
+ */
+class Crc32cDigest extends MessageDigest implements Cloneable {
+
+	private static final int POLYNOMIAL = 0x82f63b78;
+
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			TABLES[0][i] = crc;
+		}
+		for (int i = 0; i < 256; i++) {
+			for (int table = 1; table < 8; table++) {
+				TABLES[table][i] = (TABLES[table - 1][i] >>> 8) ^ TABLES[0][TABLES[table - 1][i] & 0xff];
+			}
+		}
+	}
+
+	private int crc = 0xffffffff;
+
+	public Crc32cDigest() {
+		super("CRC32C");
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ input) & 0xff];
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length) {
+		int crc = this.crc;
+		int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3], t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+		int end = offset + length;
+		for (; offset + 8 <= end; offset += 8) {
+			int low = crc ^ (input[offset] & 0xff | (input[offset + 1] & 0xff) << 8 | (input[offset + 2] & 0xff) << 16 | (input[offset + 3] & 0xff) << 24);
+			crc = t7[low & 0xff] ^ t6[(low >>> 8) & 0xff] ^ t5[(low >>> 16) & 0xff] ^ t4[low >>> 24]
+					^ t3[input[offset + 4] & 0xff] ^ t2[input[offset + 5] & 0xff] ^ t1[input[offset + 6] & 0xff] ^ t0[input[offset + 7] & 0xff];
+		}
+		for (; offset < end; offset++) {
+			crc = (crc >>> 8) ^ t0[(crc ^ input[offset]) & 0xff];
+		}
+		this.crc = crc;
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		int value = ~crc;
+		engineReset();
+		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return 4;
+	}
+
+	@Override
+	protected void engineReset() {
+		crc = 0xffffffff;
+	}
+}
@@ -1,303 +1,911 @@
-package com.shuffle.turtleget;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.Date;
-import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.apache.commons.vfs2.FileObject;
-import org.apache.commons.vfs2.RandomAccessContent;
-import org.apache.commons.vfs2.util.RandomAccessMode;
-
-public class Download implements Comparator<Download>, Comparable<Download>, Callable<Boolean> {
-
-	private static final transient Log log = LogFactory.getLog(Download.class);
-
-	private FileObject source;
-
-	private FileObject destination;
-
-	private Date added;
-
-	private DownloadStatus status;
-	
-	//TODO Add schdule date
-
-	private long size;
-
-	private long downloaded;
-
-	private double percent;
-
-	private List<DownloadListener> listener = new ArrayList<>();
-
-	private TurtleGet downloadManager;
-
-	public Download() {
-		setAdded(new Date());
-		this.status = DownloadStatus.SCHEDULED;
-	}
-
-	public Download(FileObject source, FileObject destination) {
-		this();
-		this.source = source;
-		this.destination = destination;
-	}
-	
-	public String getName() {
-		return source.getName().getBaseName();
-	}
-
-	public FileObject getSource() {
-		return source;
-	}
-
-	public void setSource(FileObject source) {
-		this.source = source;
-	}
-
-	public FileObject getDestination() {
-		return destination;
-	}
-
-	public void setDestination(FileObject destination) {
-		this.destination = destination;
-	}
-
-	public Date getAdded() {
-		return added;
-	}
-
-	public void setAdded(Date added) {
-		this.added = added;
-	}
-
-	public double getPercent() {
-		return percent;
-	}
-
-	protected void setStatus(DownloadStatus status) {
-		this.status = status;
-	}
-
-	public DownloadStatus getStatus() {
-		return status;
-	}
-
-	public void pause() {
-		this.status = DownloadStatus.STOPPED;
-	}
-
-	public void start() {
-		this.status = DownloadStatus.IN_PROGRESS;
-		if (this.downloadManager == null) {
-			startsItsOwnThread();
-		}
-	}
-	
-	public void schedule() {
-		this.status = DownloadStatus.SCHEDULED;
-	}
-	
-	public void schedule(Date when) {
-		throw new IllegalArgumentException("Not yet implemented");
-	}
-
-	private void startsItsOwnThread() {
-		ExecutorService executorService = Executors.newSingleThreadExecutor();
-		executorService.submit(this);
-		executorService.shutdown();
-	}
-
-	public long getSize() {
-		return this.size;
-	}
-
-	public long getDownload() {
-		return this.downloaded;
-	}
-
-	public TurtleGet getDownloadManager() {
-		return downloadManager;
-	}
-
-	public void setDownloadManager(TurtleGet downloadManager) {
-		this.downloadManager = downloadManager;
-	}
-
-	public List<DownloadListener> getListener() {
-		return listener;
-	}
-
-	public void addListener(DownloadListener listener) {
-		this.listener.add(listener);
-	}
-
-	public void removeListener(DownloadListener listener) {
-		this.listener.remove(listener);
-	}
-
-	@Override
-	public int compare(Download o1, Download o2) {
-		return o1.compareTo(o2);
-	}
-
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((destination == null) ? 0 : destination.hashCode());
-		result = prime * result + ((source == null) ? 0 : source.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		Download other = (Download) obj;
-		if (destination == null) {
-			if (other.destination != null)
-				return false;
-		} else if (!destination.getName().getURI().equals(other.destination.getName().getURI()))
-			return false;
-		if (source == null) {
-			if (other.source != null)
-				return false;
-		} else if (!source.getName().getURI().equals(other.source.getName().getURI()))
-			return false;
-		return true;
-	}
-
-	@Override
-	public int compareTo(Download o) {
-		return this.getAdded().compareTo(o.getAdded());
-	}
-
-	@Override
-	public Boolean call() throws Exception {
-		log.trace("START-" + destination.getPublicURIString());
-		
-		for (DownloadListener downloadListener : listener) {
-			downloadListener.started();
-		}
-		if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
-			downloadManager.getDownloadCallback().started(this);
-		}
-		InputStream sourceFileIn = null;
-		OutputStream destinationFileOut = null;
-		
-		try {
-			this.size = source.getContent().getSize();
-			long existingFileSize = destination.exists() ? destination.getContent().getSize() : 0;
-			RandomAccessContent randomAccessContentRemote = source.getContent().getRandomAccessContent(RandomAccessMode.READ);
-			randomAccessContentRemote.seek(existingFileSize);
-			sourceFileIn = randomAccessContentRemote.getInputStream();
-			destinationFileOut = destination.getContent().getOutputStream(true);
-			
-			copyStream(sourceFileIn, destinationFileOut, existingFileSize);
-			
-		}
-		catch (Exception e) {
-			log.error("Something went wrong when downloading", e);
-			this.status = DownloadStatus.STOPPED;
-			for (DownloadListener downloadListener : listener) {
-				downloadListener.error(e);
-			}
-			if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
-				downloadManager.getDownloadCallback().error(this, e);
-			}
-		}
-		finally {
-			if (sourceFileIn != null) {
-				sourceFileIn.close();				
-			}
-			if (destinationFileOut != null) {
-				destinationFileOut.close();				
-			}
-		}
-		if (!this.status.equals(DownloadStatus.STOPPED) && !this.status.equals(DownloadStatus.SCHEDULED)) {
-			this.status = DownloadStatus.COMPLETE;
-			log.trace("FINISHED-" + destination.getPublicURIString());
-			for (DownloadListener downloadListener : listener) {
-				downloadListener.finished();
-			}
-			if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
-				downloadManager.getDownloadCallback().finished(this);
-			}
-		} else {
-			log.trace("PAUSED-" + destination.getPublicURIString());
-			for (DownloadListener downloadListener : listener) {
-				downloadListener.paused();
-			}
-			if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
-				downloadManager.getDownloadCallback().paused(this);
-			}
-		}
-		return true;
-	}
-
-	private final int DEFAULT_COPY_BUFFER_SIZE = 1024;
-
-	// stolen from commons.net.io.Util =D
-	private long copyStream(InputStream source, OutputStream dest, long existingFileSize) throws IOException {
-		int numBytes;
-		long total = 0;
-		byte[] buffer = new byte[DEFAULT_COPY_BUFFER_SIZE];
-
-		while ((numBytes = source.read(buffer)) != -1) {
-			if (this.status.equals(DownloadStatus.STOPPED)) {
-				break;
-			}
-			// Technically, some read(byte[]) methods may
-			// return 0 and we cannot
-			// accept that as an indication of EOF.
-			if (numBytes == 0) {
-				int singleByte = source.read();
-				if (singleByte < 0) {
-					break;
-				}
-				dest.write(singleByte);
-				dest.flush();
-				++total;
-				continue;
-			}
-
-			dest.write(buffer, 0, numBytes);
-			dest.flush();
-			total += numBytes;
-
-			this.downloaded = (total + existingFileSize);
-			double percent = this.downloaded * 100 / size;
-			if (this.percent != percent) {
-				this.percent = percent;
-				for (DownloadListener downloadListener : listener) {
-					downloadListener.progress();
-				}
-				if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
-					downloadManager.getDownloadCallback().progress(this);
-				}
-			}
-		}
-
-		return total;
-	}
-
-	@Override
-	public String toString() {
-		return "Download [name=" + destination.getName().getBaseName() + ", destination=" + destination.getPublicURIString() + ", added=" + added + ", status=" + status + ", size=" + size + ", downloaded=" + downloaded + ", percent="
-				+ percent + "]";
-	}
-}
+package com.shuffle.turtleget;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+public class Download implements Comparator<Download>, Comparable<Download>, Callable<Boolean> {
+
+	private static final transient Log log = LogFactory.getLog(Download.class);
+
+	private FileObject source;
+
+	private FileObject destination;
+
+	private volatile DownloadKey key;
+
+	private volatile String host;
+
+	private Date added;
+
+	private final AtomicReference<DownloadStatus> status = new AtomicReference<>(DownloadStatus.SCHEDULED);
+
+	private final CompletableFuture<Download> completion = new CompletableFuture<>();
+
+	private volatile int priority;
+
+	private volatile long size;
+
+	private final AtomicLong downloaded = new AtomicLong();
+
+	private volatile double percent;
+
+	private volatile long nextProgress;
+
+	/**
+	 * Bytes between two progress events of a download of unknown size
+	 */
+	private static final long UNKNOWN_SIZE_PROGRESS_INTERVAL = 1024 * 1024;
+
+	private List<DownloadListener> listener = new CopyOnWriteArrayList<>();
+
+	private volatile TurtleGet downloadManager;
+
+	private volatile Date scheduled;
+
+	private static final DownloadScheduler standaloneScheduler = new DownloadScheduler(Download::due, () -> {
+	});
+
+	/**
+	 * Largest part of a local source mapped at once
+	 */
+	private static final long MAP_SIZE = 64L * 1024 * 1024;
+
+	private static final TransferSettings defaultTransferSettings = new TransferSettings();
+
+	private static final BufferPool defaultBufferPool = new BufferPool();
+
+	private final TokenBucket bandwidthBucket = new TokenBucket(0);
+
+	private final DownloadMetrics metrics = new DownloadMetrics(this);
+
+	private volatile String expectedChecksum;
+
+	private volatile String checksum;
+
+	private StreamChecksum streamChecksum;
+
+	public Download() {
+		setAdded(new Date());
+	}
+
+	public Download(FileObject source, FileObject destination) {
+		this();
+		this.source = source;
+		this.destination = destination;
+	}
+	
+	public String getName() {
+		return source.getName().getBaseName();
+	}
+
+	public FileObject getSource() {
+		return source;
+	}
+
+	public void setSource(FileObject source) {
+		this.source = source;
+		this.key = null;
+		this.host = null;
+	}
+
+	public FileObject getDestination() {
+		return destination;
+	}
+
+	public void setDestination(FileObject destination) {
+		this.destination = destination;
+		this.key = null;
+	}
+
+	/**
+	 * Source and destination URIs identifying this download, computed once
+	 * 
+	 * @return
+	 */
+	DownloadKey getKey() {
+		DownloadKey key = this.key;
+		if (key == null) {
+			key = DownloadKey.of(source, destination);
+			this.key = key;
+		}
+		return key;
+	}
+
+	/**
+	 * Server of the source as <code>scheme://host:port</code>, computed once
+	 * 
+	 * @return
+	 */
+	String getHost() {
+		String host = this.host;
+		if (host == null) {
+			host = HostKey.of(source);
+			this.host = host;
+		}
+		return host;
+	}
+
+	public Date getAdded() {
+		return added;
+	}
+
+	public void setAdded(Date added) {
+		this.added = added;
+	}
+
+	public double getPercent() {
+		return percent;
+	}
+
+	/**
+	 * Restores a status, bypassing the transitions
+	 * 
+	 * @param status
+	 */
+	protected void setStatus(DownloadStatus status) {
+		statusChanged(this.status.getAndSet(status), status);
+		if (status == DownloadStatus.COMPLETE) {
+			completion.complete(this);
+		}
+	}
+
+	public DownloadStatus getStatus() {
+		return status.get();
+	}
+
+	/**
+	 * Completes once the download is complete and its listeners were called,
+	 * or exceptionally with the error it stopped on after its retries. A
+	 * download restarted after a failure keeps the failed future.
+	 * 
+	 * @return
+	 */
+	public CompletableFuture<Download> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * Moves to the status if {@link DownloadStatus#canChangeTo} allows it from
+	 * the current one
+	 * 
+	 * @param next
+	 * @return false if the transition isn't allowed
+	 */
+	boolean changeStatus(DownloadStatus next) {
+		DownloadStatus current;
+		do {
+			current = this.status.get();
+			if (current == next) {
+				return true;
+			}
+			if (!current.canChangeTo(next)) {
+				return false;
+			}
+		} while (!this.status.compareAndSet(current, next));
+		statusChanged(current, next);
+		return true;
+	}
+
+	/**
+	 * Moves to the status only from the expected one
+	 * 
+	 * @param expected
+	 * @param next
+	 * @return false if the download was in another status
+	 */
+	boolean changeStatus(DownloadStatus expected, DownloadStatus next) {
+		if (!expected.canChangeTo(next) || !this.status.compareAndSet(expected, next)) {
+			return false;
+		}
+		statusChanged(expected, next);
+		return true;
+	}
+
+	private void statusChanged(DownloadStatus from, DownloadStatus to) {
+		TurtleGet downloadManager = this.downloadManager;
+		if (downloadManager != null && from != to) {
+			downloadManager.statusChanged(from, to);
+		}
+	}
+
+	public void pause() {
+		changeStatus(DownloadStatus.STOPPED);
+	}
+
+	public void start() {
+		if (changeStatus(DownloadStatus.IN_PROGRESS) && this.downloadManager == null) {
+			startsItsOwnThread();
+		}
+	}
+	
+	public void schedule() {
+		changeStatus(DownloadStatus.SCHEDULED);
+	}
+	
+	/**
+	 * Holds the download until the date, then queues it for the next free
+	 * slot
+	 * 
+	 * @param when
+	 */
+	public void schedule(Date when) {
+		if (this.downloadManager != null) {
+			this.downloadManager.schedule(this, when);
+		} else {
+			this.scheduled = when;
+			if (changeStatus(DownloadStatus.WAITING)) {
+				standaloneScheduler.schedule(this, when);
+			}
+		}
+	}
+
+	/**
+	 * When the download is due to start, null if it isn't timed
+	 * 
+	 * @return
+	 */
+	public Date getScheduled() {
+		return scheduled;
+	}
+
+	void setScheduled(Date scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	/**
+	 * Rank of the download for {@link QueuePolicy#priority(long)} and
+	 * {@link QueuePolicy#weightedFair()}, higher goes first, 0 by default
+	 * 
+	 * @return
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Changes the priority, persisted with the queue
+	 * 
+	 * @param priority
+	 */
+	public void prioritize(int priority) {
+		if (this.downloadManager != null) {
+			this.downloadManager.prioritize(this, priority);
+		} else {
+			this.priority = priority;
+		}
+	}
+
+	void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	private void due() {
+		if (this.downloadManager != null) {
+			this.downloadManager.scheduledDue(this);
+		} else {
+			start();
+		}
+	}
+
+	private void startsItsOwnThread() {
+		ExecutorService executorService = Executors.newSingleThreadExecutor();
+		executorService.submit(this);
+		executorService.shutdown();
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Size known before the transfer, from the listing of the source
+	 * 
+	 * @param size
+	 */
+	void setSize(long size) {
+		this.size = size;
+	}
+
+	public long getDownload() {
+		return this.downloaded.get();
+	}
+
+	/**
+	 * Cap of this download in bytes per second, 0 means unlimited
+	 * 
+	 * @return
+	 */
+	public long getBandwidthLimit() {
+		return bandwidthBucket.getRate();
+	}
+
+	/**
+	 * Caps this download, applies right away if it is running. Host and
+	 * global caps still apply on top of it.
+	 * 
+	 * @param bytesPerSecond
+	 */
+	public void setBandwidthLimit(long bytesPerSecond) {
+		bandwidthBucket.setRate(bytesPerSecond);
+	}
+
+	/**
+	 * Hex digest the file must match, for the algorithm of the
+	 * {@link TransferSettings}. When not set a sidecar next to the source is
+	 * used if there is one.
+	 * 
+	 * @param expectedChecksum
+	 */
+	public void setExpectedChecksum(String expectedChecksum) {
+		this.expectedChecksum = expectedChecksum;
+	}
+
+	public String getExpectedChecksum() {
+		return expectedChecksum;
+	}
+
+	/**
+	 * Digest of the downloaded file, as <code>algorithm:hex</code>
+	 * 
+	 * @return null until the download completes with a checksum algorithm set
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	TokenBucket getBandwidthBucket() {
+		return bandwidthBucket;
+	}
+
+	private Throttle throttle() {
+		return downloadManager != null ? downloadManager.getBandwidthLimiter().throttleFor(this) : new Throttle(this, bandwidthBucket);
+	}
+
+	TransferSettings getTransferSettings() {
+		return downloadManager != null ? downloadManager.getTransferSettings() : defaultTransferSettings;
+	}
+
+	BufferPool getBufferPool() {
+		return downloadManager != null ? downloadManager.getBufferPool() : defaultBufferPool;
+	}
+
+	public TurtleGet getDownloadManager() {
+		return downloadManager;
+	}
+
+	/**
+	 * Set before the download starts, the manager counts its downloads by
+	 * status from then on. Set back to null when it leaves the queue.
+	 * 
+	 * @param downloadManager
+	 */
+	public synchronized void setDownloadManager(TurtleGet downloadManager) {
+		TurtleGet previous = this.downloadManager;
+		this.downloadManager = downloadManager;
+		if (previous != downloadManager) {
+			if (previous != null) {
+				previous.statusChanged(getStatus(), null);
+			}
+			if (downloadManager != null) {
+				downloadManager.statusChanged(null, getStatus());
+			}
+		}
+	}
+
+	public List<DownloadListener> getListener() {
+		return listener;
+	}
+
+	public void addListener(DownloadListener listener) {
+		this.listener.add(listener);
+	}
+
+	public void removeListener(DownloadListener listener) {
+		this.listener.remove(listener);
+	}
+
+	@Override
+	public int compare(Download o1, Download o2) {
+		return o1.compareTo(o2);
+	}
+
+	@Override
+	public int hashCode() {
+		return getKey().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Download other = (Download) obj;
+		return getKey().equals(other.getKey());
+	}
+
+	@Override
+	public int compareTo(Download o) {
+		int result = this.getAdded().compareTo(o.getAdded());
+		return result != 0 ? result : getKey().compareTo(o.getKey());
+	}
+
+	@Override
+	public Boolean call() throws Exception {
+		log.trace("START-" + destination.getPublicURIString());
+		// called straight instead of through start()
+		changeStatus(DownloadStatus.SCHEDULED, DownloadStatus.IN_PROGRESS);
+		
+		if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
+			downloadManager.getDownloadCallback().started(this);
+		} else {
+			for (DownloadListener downloadListener : listener) {
+				downloadListener.started();
+			}
+		}
+		RetryPolicy retryPolicy = getTransferSettings().getRetryPolicy();
+		int attempt = 0;
+		long failedAt = -1;
+		boolean retry;
+		do {
+			retry = false;
+			InputStream sourceFileIn = null;
+			FileChannel sourceChannel = null;
+			OutputStream destinationFileOut = null;
+			
+			try {
+				this.size = downloadManager != null ? downloadManager.getMetadataCache().getSize(source) : source.getContent().getSize();
+				long existingFileSize = LocalDestination.isLocal(destination) ? LocalDestination.validLength(destination)
+						: destination.exists() ? destination.getContent().getSize() : 0;
+				this.downloaded.set(existingFileSize);
+				this.percent = percentOf(existingFileSize);
+				this.metrics.started(existingFileSize);
+				this.nextProgress = progressThreshold(existingFileSize);
+				int segments = SegmentedTransfer.segmentsFor(this, existingFileSize, getTransferSettings());
+				ChecksumAlgorithm algorithm = getTransferSettings().getChecksumAlgorithm();
+				StreamChecksum streamChecksum = algorithm != null && segments == 1 ? streamChecksum(algorithm, existingFileSize) : null;
+				if (segments > 1) {
+					new SegmentedTransfer(this, this.size, segments, throttle()).run();
+				} else {
+					LocalDestination localDestination = null;
+					if (LocalDestination.isLocal(destination)) {
+						localDestination = new LocalDestination(destination);
+						destinationFileOut = localDestination.getOutputStream(existingFileSize);
+						if (getTransferSettings().isPreallocate() && this.size - existingFileSize > getTransferSettings().getCheckpointSize()) {
+							localDestination.preallocate(existingFileSize, this.size);
+						}
+					} else {
+						destinationFileOut = destination.getContent().getOutputStream(true);
+					}
+					long connectStart = System.nanoTime();
+					if (localDestination != null && LocalDestination.isLocal(source)) {
+						sourceChannel = FileChannel.open(LocalDestination.path(source), StandardOpenOption.READ);
+						connected(System.nanoTime() - connectStart);
+						copyChannel(sourceChannel, (LocalDestination.PositionalOutputStream) destinationFileOut, existingFileSize, throttle(), streamChecksum);
+					} else {
+						if (existingFileSize > 0) {
+							RandomAccessContent randomAccessContentRemote = source.getContent().getRandomAccessContent(RandomAccessMode.READ);
+							randomAccessContentRemote.seek(existingFileSize);
+							sourceFileIn = randomAccessContentRemote.getInputStream();
+						} else {
+							// closing a random access stream aborts the transfer,
+							// which drops pooled connections like FTP, a plain
+							// stream gives the connection back
+							sourceFileIn = source.getContent().getInputStream();
+						}
+						connected(System.nanoTime() - connectStart);
+						if (getTransferSettings().getPipelineDepth() > 0) {
+							new PipelinedCopy(this, getBufferPool(), getTransferSettings()).copy(sourceFileIn, destinationFileOut, throttle(), streamChecksum);
+						} else {
+							copyStream(sourceFileIn, destinationFileOut, existingFileSize, throttle(), streamChecksum);
+						}
+					}
+					if (getStatus() != DownloadStatus.STOPPED && this.downloaded.get() < this.size) {
+						// a dropped data connection looks like the end of the
+						// file
+						throw new EOFException("Source ended at " + this.downloaded.get() + " of " + this.size + " bytes");
+					}
+					if (localDestination != null && getStatus() == DownloadStatus.IN_PROGRESS) {
+						// the source may have grown since it was listed, or
+						// not told its size at all
+						localDestination.complete(((LocalDestination.PositionalOutputStream) destinationFileOut).getPosition());
+					}
+				}
+				if (algorithm != null && getStatus() == DownloadStatus.IN_PROGRESS) {
+					if (streamChecksum == null) {
+						// segments arrive out of order, the file is hashed once
+						// it is whole
+						streamChecksum = new StreamChecksum(algorithm, false);
+						streamChecksum.prefix(destination, this.size);
+					}
+					if (destinationFileOut != null) {
+						destinationFileOut.close();
+						destinationFileOut = null;
+					}
+					verify(algorithm, streamChecksum.finish());
+				} else if (streamChecksum != null) {
+					streamChecksum.sync();
+				}
+			}
+			catch (Exception e) {
+				if (this.downloaded.get() > failedAt) {
+					// the last retry got somewhere, the attempts start over
+					attempt = 0;
+				}
+				failedAt = this.downloaded.get();
+				if (getStatus() != DownloadStatus.STOPPED && retryPolicy.shouldRetry(e, ++attempt)) {
+					long delay = retryPolicy.delay(attempt);
+					log.warn("Download " + getName() + " failed at " + failedAt + " bytes, retry " + attempt + " of " + retryPolicy.getMaxAttempts() + " in " + delay + "ms : " + e);
+					retried();
+					retry = backoff(delay);
+				} else {
+					log.error("Something went wrong when downloading", e);
+					changeStatus(DownloadStatus.STOPPED);
+					this.streamChecksum = null;
+					if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
+						downloadManager.getDownloadCallback().error(this, e);
+					} else {
+						for (DownloadListener downloadListener : listener) {
+							downloadListener.error(e);
+						}
+					}
+					completion.completeExceptionally(e);
+				}
+			}
+			finally {
+				// a dropped connection often fails to close too, which must
+				// not get in the way of the retry
+				close(sourceFileIn);
+				close(sourceChannel);
+				close(destinationFileOut);
+				TurtleGet downloadManager = this.downloadManager;
+				if (downloadManager != null) {
+					downloadManager.releaseSegments(this);
+				}
+			}
+		} while (retry);
+		// a pause racing the last bytes either wins or loses here
+		if (changeStatus(DownloadStatus.IN_PROGRESS, DownloadStatus.COMPLETE)) {
+			log.trace("FINISHED-" + destination.getPublicURIString());
+			if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
+				downloadManager.getDownloadCallback().finished(this);
+			} else {
+				for (DownloadListener downloadListener : listener) {
+					downloadListener.finished();
+				}
+			}
+			completion.complete(this);
+		} else {
+			log.trace("PAUSED-" + destination.getPublicURIString());
+			if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
+				downloadManager.getDownloadCallback().paused(this);
+			} else {
+				for (DownloadListener downloadListener : listener) {
+					downloadListener.paused();
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Waits before a retry, still holding the transfer slot
+	 * 
+	 * @param delay
+	 *            milliseconds
+	 * @return false if the download was paused meanwhile
+	 */
+	private boolean backoff(long delay) {
+		long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+		long remaining;
+		while (getStatus() != DownloadStatus.STOPPED && (remaining = end - System.nanoTime()) > 0) {
+			try {
+				Thread.sleep(Math.min(100, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				changeStatus(DownloadStatus.STOPPED);
+			}
+		}
+		return getStatus() != DownloadStatus.STOPPED;
+	}
+
+	private void retried() {
+		this.metrics.retried();
+		if (downloadManager != null) {
+			downloadManager.getMetrics().retried(this);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			log.debug("Could not close " + closeable, e);
+		}
+	}
+
+	/**
+	 * The digest of the last run if it stopped where this one starts,
+	 * otherwise a new one fed with the part already on disk
+	 * 
+	 * @param algorithm
+	 * @param existingFileSize
+	 * @return
+	 * @throws IOException
+	 */
+	private StreamChecksum streamChecksum(ChecksumAlgorithm algorithm, long existingFileSize) throws IOException {
+		StreamChecksum streamChecksum = this.streamChecksum;
+		if (streamChecksum == null || streamChecksum.getAlgorithm() != algorithm || streamChecksum.getPosition() != existingFileSize) {
+			streamChecksum = new StreamChecksum(algorithm, getTransferSettings().isAsyncChecksum());
+			if (existingFileSize > 0) {
+				streamChecksum.prefix(destination, existingFileSize);
+			}
+			this.streamChecksum = streamChecksum;
+		}
+		return streamChecksum;
+	}
+
+	/**
+	 * Checks the digest against the expected one, a mismatching file is
+	 * deleted so it isn't resumed from
+	 * 
+	 * @param algorithm
+	 * @param actual
+	 * @throws IOException
+	 */
+	private void verify(ChecksumAlgorithm algorithm, String actual) throws IOException {
+		this.streamChecksum = null;
+		String expected = this.expectedChecksum != null ? this.expectedChecksum : readSidecar(algorithm);
+		if (expected != null && !expected.trim().equalsIgnoreCase(actual)) {
+			destination.delete();
+			throw new IOException(algorithm.getAlgorithmName() + " of " + getName() + " is " + actual + ", expected " + expected.trim());
+		}
+		if (expected == null) {
+			log.debug("No " + algorithm.getAlgorithmName() + " to check " + getName() + " against");
+		}
+		this.checksum = algorithm.getAlgorithmName() + ":" + actual;
+	}
+
+	/**
+	 * First word of the sidecar file next to the source, like
+	 * <code>file.iso.sha256</code> in the format of sha256sum
+	 * 
+	 * @param algorithm
+	 * @return null if there is none
+	 */
+	private String readSidecar(ChecksumAlgorithm algorithm) {
+		try {
+			FileObject folder = source.getParent();
+			if (folder == null) {
+				return null;
+			}
+			FileObject sidecar = folder.resolveFile(source.getName().getBaseName() + algorithm.getExtension());
+			if (!(downloadManager != null ? downloadManager.getMetadataCache().exists(sidecar) : sidecar.exists())) {
+				return null;
+			}
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(sidecar.getContent().getInputStream(), StandardCharsets.US_ASCII))) {
+				String line = reader.readLine();
+				return line == null || line.trim().isEmpty() ? null : line.trim().split("\\s+")[0];
+			}
+		} catch (IOException e) {
+			log.warn("Could not read the " + algorithm.getAlgorithmName() + " sidecar of " + getName(), e);
+			return null;
+		}
+	}
+
+	// stolen from commons.net.io.Util =D
+	private long copyStream(InputStream source, OutputStream dest, long existingFileSize, Throttle throttle, StreamChecksum checksum) throws IOException {
+		int numBytes;
+		long total = 0;
+		TransferSettings settings = getTransferSettings();
+		AdaptiveBuffer buffer = new AdaptiveBuffer(settings);
+		long checkpointSize = settings.getCheckpointSize();
+		long nextCheckpoint = checkpointSize;
+
+		// status is checked before every read so pause() stops the copy
+		// after at most one more buffer
+		while (getStatus() != DownloadStatus.STOPPED && (numBytes = source.read(buffer.array(), 0, throttle.chunk(buffer.size()))) != -1) {
+			// Technically, some read(byte[]) methods may
+			// return 0 and we cannot
+			// accept that as an indication of EOF.
+			if (numBytes == 0) {
+				int singleByte = source.read();
+				if (singleByte < 0) {
+					break;
+				}
+				dest.write(singleByte);
+				if (checksum != null) {
+					checksum.update(new byte[] { (byte) singleByte }, 0, 1);
+				}
+				++total;
+				transferred(1);
+				throttle.acquire(1);
+				continue;
+			}
+
+			dest.write(buffer.array(), 0, numBytes);
+			if (checksum != null) {
+				checksum.update(buffer.array(), 0, numBytes);
+			}
+			buffer.filled(numBytes);
+			total += numBytes;
+			if (total >= nextCheckpoint) {
+				dest.flush();
+				nextCheckpoint = total + checkpointSize;
+			}
+
+			transferred(numBytes);
+			throttle.acquire(numBytes);
+		}
+		dest.flush();
+
+		return total;
+	}
+
+	/**
+	 * Copies between two local files without going through the heap, in
+	 * chunks so pausing and the limits work as with {@link #copyStream}. The
+	 * kernel copies the file when no checksum is computed, otherwise the
+	 * source is mapped and the digest reads the mapping.
+	 * 
+	 * @param source
+	 * @param dest
+	 * @param existingFileSize
+	 * @param throttle
+	 * @param checksum
+	 * @return
+	 * @throws IOException
+	 */
+	private long copyChannel(FileChannel source, LocalDestination.PositionalOutputStream dest, long existingFileSize, Throttle throttle, StreamChecksum checksum) throws IOException {
+		long total = 0;
+		long position = existingFileSize;
+		long end = source.size();
+		TransferSettings settings = getTransferSettings();
+		long checkpointSize = settings.getCheckpointSize();
+		long nextCheckpoint = checkpointSize;
+		MappedByteBuffer mapped = null;
+		long mappedPosition = 0;
+
+		while (getStatus() != DownloadStatus.STOPPED && position < end) {
+			long count = Math.min(throttle.chunk(settings.getMaxBufferSize()), end - position);
+			long numBytes;
+			if (checksum == null) {
+				numBytes = dest.transferFrom(source, position, count);
+				if (numBytes == 0) {
+					break;
+				}
+			} else {
+				if (mapped == null || position + count > mappedPosition + mapped.capacity()) {
+					mappedPosition = position;
+					mapped = source.map(MapMode.READ_ONLY, position, Math.min(MAP_SIZE, end - position));
+					count = Math.min(count, mapped.capacity());
+				}
+				ByteBuffer chunk = mapped.duplicate();
+				chunk.position((int) (position - mappedPosition)).limit((int) (position - mappedPosition + count));
+				dest.write(chunk.duplicate());
+				checksum.update(chunk);
+				numBytes = count;
+			}
+			position += numBytes;
+			total += numBytes;
+			if (total >= nextCheckpoint) {
+				dest.flush();
+				nextCheckpoint = total + checkpointSize;
+			}
+
+			transferred(numBytes);
+			throttle.acquire(numBytes);
+		}
+		dest.flush();
+
+		return total;
+	}
+
+	/**
+	 * Accounts bytes written to the destination, called by every connection
+	 * of the download
+	 * 
+	 * @param numBytes
+	 */
+	void transferred(long numBytes) {
+		this.metrics.transferred();
+		if (this.downloaded.addAndGet(numBytes) >= this.nextProgress) {
+			updatePercent();
+		}
+	}
+
+	/**
+	 * Accounts the time it took to open a connection to the source
+	 * 
+	 * @param nanos
+	 */
+	void connected(long nanos) {
+		this.metrics.connected(nanos);
+		if (downloadManager != null) {
+			downloadManager.getMetrics().connected(this, nanos);
+		}
+	}
+
+	/**
+	 * Speed, ETA and latency of the transfer
+	 * 
+	 * @return
+	 */
+	public DownloadMetrics getMetrics() {
+		return metrics;
+	}
+
+	private double percentOf(long downloaded) {
+		return size > 0 ? downloaded * 100.0 / size : 0;
+	}
+
+	/**
+	 * First byte count that moves the percent past the one of the given
+	 * count, or {@value #UNKNOWN_SIZE_PROGRESS_INTERVAL} bytes further when the
+	 * size is unknown
+	 * 
+	 * @param downloaded
+	 * @return
+	 */
+	private long progressThreshold(long downloaded) {
+		if (size <= 0) {
+			return downloaded + UNKNOWN_SIZE_PROGRESS_INTERVAL;
+		}
+		return (((long) percentOf(downloaded) + 1) * size + 99) / 100;
+	}
+
+	private synchronized void updatePercent() {
+		long downloaded = this.downloaded.get();
+		if (downloaded < this.nextProgress) {
+			return;
+		}
+		this.percent = percentOf(downloaded);
+		this.nextProgress = progressThreshold(downloaded);
+		if (downloadManager != null && downloadManager.getDownloadCallback() != null) {
+			downloadManager.getDownloadCallback().progress(this);
+		} else {
+			for (DownloadListener downloadListener : listener) {
+				downloadListener.progress();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Download [name=" + destination.getName().getBaseName() + ", destination=" + destination.getPublicURIString() + ", added=" + added + ", status=" + getStatus() + ", size=" + size + ", downloaded=" + downloaded + ", percent="
+				+ percent + "]";
+	}
+}
@@ -0,0 +1,79 @@
+package com.shuffle.turtleget;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Handle over the downloads of one add, a folder or a collection of
+ * downloads. Downloads join it as they are enqueued, the ones already in the
+ * queue join too while the ones already in the history are left out.
+ */
+public class DownloadBatch {
+
+	private final List<Download> downloads = new CopyOnWriteArrayList<>();
+
+	private final CompletableFuture<List<Download>> enqueued = new CompletableFuture<>();
+
+	private final CompletableFuture<List<Download>> completion = enqueued.thenCompose(downloads -> CompletableFuture
+			.allOf(downloads.stream().map(Download::getCompletion).toArray(CompletableFuture[]::new)).thenApply(done -> downloads));
+
+	void add(Collection<Download> downloads) {
+		this.downloads.addAll(downloads);
+	}
+
+	void enqueued() {
+		enqueued.complete(Collections.unmodifiableList(new ArrayList<>(downloads)));
+	}
+
+	void failed(Throwable exception) {
+		enqueued.completeExceptionally(exception);
+	}
+
+	/**
+	 * The downloads enqueued so far, grows while a folder is walked
+	 *
+	 * @return
+	 */
+	public List<Download> getDownloads() {
+		return Collections.unmodifiableList(downloads);
+	}
+
+	/**
+	 * Completes with all the downloads once every one of them is in the queue
+	 * and persisted, or exceptionally if the source couldn't be resolved or
+	 * walked
+	 *
+	 * @return
+	 */
+	public CompletableFuture<List<Download>> getEnqueued() {
+		return enqueued;
+	}
+
+	/**
+	 * Completes once every download is complete, or exceptionally once they
+	 * all settled and at least one failed
+	 *
+	 * @return
+	 */
+	public CompletableFuture<List<Download>> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * How many of the downloads are complete
+	 *
+	 * @return
+	 */
+	public int getCompleted() {
+		return (int) downloads.stream().filter(download -> download.getStatus() == DownloadStatus.COMPLETE).count();
+	}
+
+	@Override
+	public String toString() {
+		return "DownloadBatch [downloads=" + downloads.size() + ", completed=" + getCompleted() + "]";
+	}
+}
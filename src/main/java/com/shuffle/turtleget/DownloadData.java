@@ -1,5 +1,8 @@
 package com.shuffle.turtleget;
 
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Comparator;
 import java.util.Date;
@@ -14,6 +17,14 @@ class DownloadData implements Serializable, Comparable<DownloadData>, Comparator
 
 	private Date added;
 
+	private long size;
+
+	private Date scheduled;
+
+	private String checksum;
+
+	private int priority;
+
 	public DownloadData() {
 
 	}
@@ -49,6 +60,81 @@ class DownloadData implements Serializable, Comparable<DownloadData>, Comparator
 		this.added = added;
 	}
 
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public Date getScheduled() {
+		return scheduled;
+	}
+
+	public void setScheduled(Date scheduled) {
+		this.scheduled = scheduled;
+	}
+
+	public String getChecksum() {
+		return checksum;
+	}
+
+	public void setChecksum(String checksum) {
+		this.checksum = checksum;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Writes the compact form used by the journal
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeUTF(source);
+		out.writeUTF(destination);
+		out.writeLong(added.getTime());
+		out.writeLong(size);
+		out.writeLong(scheduled == null ? 0 : scheduled.getTime());
+		out.writeUTF(checksum == null ? "" : checksum);
+		out.writeInt(priority);
+	}
+
+	/**
+	 * Reads a record written by {@link #write(DataOutput)}, fields added after
+	 * the first version are optional so old journals still replay
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static DownloadData read(DataInputStream in) throws IOException {
+		DownloadData downloadData = new DownloadData(in.readUTF(), in.readUTF(), new Date(in.readLong()));
+		if (in.available() >= 8) {
+			downloadData.setSize(in.readLong());
+		}
+		if (in.available() >= 8) {
+			long scheduled = in.readLong();
+			downloadData.setScheduled(scheduled == 0 ? null : new Date(scheduled));
+		}
+		if (in.available() >= 2) {
+			String checksum = in.readUTF();
+			downloadData.setChecksum(checksum.isEmpty() ? null : checksum);
+		}
+		if (in.available() >= 4) {
+			downloadData.setPriority(in.readInt());
+		}
+		return downloadData;
+	}
+
 	@Override
 	public int compare(DownloadData o1, DownloadData o2) {
 		return o1.compareTo(o2);
@@ -56,6 +142,13 @@ class DownloadData implements Serializable, Comparable<DownloadData>, Comparator
 
 	@Override
 	public int compareTo(DownloadData o) {
-		return this.added.compareTo(o.getAdded());
+		int result = this.added.compareTo(o.getAdded());
+		if (result == 0) {
+			result = this.source.compareTo(o.getSource());
+		}
+		if (result == 0) {
+			result = this.destination.compareTo(o.getDestination());
+		}
+		return result;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,235 @@
+package com.shuffle.turtleget;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Completed downloads, in the order they finished.
+ *
+ * Entries are {@link HistoryEntry}s instead of {@link Download}s so the
+ * history costs a few shared strings and primitives per file and nothing is
+ * resolved at startup. Lookups by {@link DownloadKey} go through an open
+ * addressing table of the entries themselves, no key objects are kept.
+ *
+ * Lookups don't lock, they read the table as published by the last add,
+ * which happens under the lock of the history.
+ *
+ * A replaced entry leaves an empty place in the completion order instead of
+ * shifting the ones after it, so iterators going on don't skip any. The
+ * places are gone the next time the history is loaded.
+ */
+public class DownloadHistory implements Iterable<HistoryEntry> {
+
+	private final Map<String, String> folders = new HashMap<>();
+
+	/*
+	 * null where an entry was replaced
+	 */
+	private final List<HistoryEntry> entries = new ArrayList<>();
+
+	private int replaced;
+
+	private volatile AtomicReferenceArray<HistoryEntry> table = new AtomicReferenceArray<>(16);
+
+	private volatile int size;
+
+	/**
+	 * Adds a completed download
+	 *
+	 * @param key
+	 * @param added
+	 * @param size
+	 * @param checksum
+	 *            null if the download wasn't verified
+	 * @return false if it was already in the history
+	 */
+	synchronized boolean add(DownloadKey key, long added, long size, String checksum) {
+		if (contains(key)) {
+			return false;
+		}
+		HistoryEntry entry = entry(key, added, size, checksum);
+		entries.add(entry);
+		if ((entries.size() - replaced) * 2 > table.length()) {
+			AtomicReferenceArray<HistoryEntry> oldTable = table;
+			AtomicReferenceArray<HistoryEntry> newTable = new AtomicReferenceArray<>(oldTable.length() * 2);
+			for (int i = 0; i < oldTable.length(); i++) {
+				if (oldTable.get(i) != null) {
+					insert(newTable, oldTable.get(i));
+				}
+			}
+			table = newTable;
+		}
+		insert(table, entry);
+		this.size = entries.size() - replaced;
+		return true;
+	}
+
+	/**
+	 * Adds a completed download, replacing the entry of an earlier download of
+	 * the same file, which moves to the end of the history
+	 *
+	 * @param key
+	 * @param added
+	 * @param size
+	 * @param checksum
+	 *            null if the download wasn't verified
+	 */
+	synchronized void put(DownloadKey key, long added, long size, String checksum) {
+		if (add(key, added, size, checksum)) {
+			return;
+		}
+		HistoryEntry entry = entry(key, added, size, checksum);
+		int mask = table.length() - 1;
+		int i = spread(key.hashCode()) & mask;
+		while (!table.get(i).matches(key)) {
+			i = (i + 1) & mask;
+		}
+		entries.set(table.get(i).position, null);
+		replaced++;
+		entries.add(entry);
+		table.set(i, entry);
+	}
+
+	synchronized void put(DownloadData downloadData) {
+		put(new DownloadKey(downloadData.getSource(), downloadData.getDestination()), downloadData.getAdded().getTime(), downloadData.getSize(), downloadData.getChecksum());
+	}
+
+	private HistoryEntry entry(DownloadKey key, long added, long size, String checksum) {
+		int sourceSplit = key.getSource().lastIndexOf('/') + 1;
+		int destinationSplit = key.getDestination().lastIndexOf('/') + 1;
+		return new HistoryEntry(folder(key.getSource().substring(0, sourceSplit)), key.getSource().substring(sourceSplit),
+				folder(key.getDestination().substring(0, destinationSplit)), key.getDestination().substring(destinationSplit), added, size, checksum, key.hashCode(),
+				entries.size());
+	}
+
+	private static void insert(AtomicReferenceArray<HistoryEntry> table, HistoryEntry entry) {
+		int mask = table.length() - 1;
+		int i = spread(entry.hash) & mask;
+		while (table.get(i) != null) {
+			i = (i + 1) & mask;
+		}
+		table.set(i, entry);
+	}
+
+	private String folder(String folder) {
+		String shared = folders.putIfAbsent(folder, folder);
+		return shared != null ? shared : folder;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	public boolean contains(DownloadKey key) {
+		return get(key) != null;
+	}
+
+	HistoryEntry get(DownloadKey key) {
+		AtomicReferenceArray<HistoryEntry> table = this.table;
+		int mask = table.length() - 1;
+		int i = spread(key.hashCode()) & mask;
+		HistoryEntry entry;
+		while ((entry = table.get(i)) != null) {
+			if (entry.matches(key)) {
+				return entry;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Part of the history, in completion order
+	 *
+	 * @param offset
+	 *            index of the first entry
+	 * @param limit
+	 *            maximum number of entries
+	 * @return
+	 */
+	public synchronized List<HistoryEntry> page(int offset, int limit) {
+		if (offset < 0 || limit < 0) {
+			throw new IllegalArgumentException("offset and limit can't be negative");
+		}
+		if (offset >= size) {
+			return Collections.emptyList();
+		}
+		if (replaced == 0) {
+			return new ArrayList<>(entries.subList(offset, (int) Math.min((long) offset + limit, entries.size())));
+		}
+		List<HistoryEntry> page = new ArrayList<>();
+		int skipped = 0;
+		for (HistoryEntry entry : entries) {
+			if (page.size() == limit) {
+				break;
+			}
+			if (entry != null && skipped++ >= offset) {
+				page.add(entry);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * @param index
+	 * @return null if the entry there was replaced
+	 */
+	private synchronized HistoryEntry entryAt(int index) {
+		return entries.get(index);
+	}
+
+	private synchronized int length() {
+		return entries.size();
+	}
+
+	/**
+	 * Walks the history one entry at a time, entries completed while
+	 * iterating are included
+	 */
+	@Override
+	public Iterator<HistoryEntry> iterator() {
+		return new Iterator<HistoryEntry>() {
+
+			private int index;
+
+			private HistoryEntry next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && index < length()) {
+					next = entryAt(index++);
+				}
+				return next != null;
+			}
+
+			@Override
+			public HistoryEntry next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				HistoryEntry entry = next;
+				next = null;
+				return entry;
+			}
+		};
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "DownloadHistory [size=" + size + "]";
+	}
+}
@@ -0,0 +1,72 @@
+package com.shuffle.turtleget;
+
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Identity of a download, the normalized URIs of its source and destination.
+ * The hash is computed once so the key can be looked up in the queue and
+ * history indexes without touching the {@link FileObject}s again.
+ */
+final class DownloadKey implements Comparable<DownloadKey> {
+
+	private final String source;
+
+	private final String destination;
+
+	private final int hash;
+
+	public DownloadKey(String source, String destination) {
+		this.source = source;
+		this.destination = destination;
+		this.hash = 31 * (31 + (destination == null ? 0 : destination.hashCode())) + (source == null ? 0 : source.hashCode());
+	}
+
+	public static DownloadKey of(FileObject source, FileObject destination) {
+		return new DownloadKey(source == null ? null : source.getName().getURI(), destination == null ? null : destination.getName().getURI());
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		DownloadKey other = (DownloadKey) obj;
+		return hash == other.hash && equals(source, other.source) && equals(destination, other.destination);
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public int compareTo(DownloadKey o) {
+		int result = compare(source, o.source);
+		return result != 0 ? result : compare(destination, o.destination);
+	}
+
+	private static int compare(String a, String b) {
+		if (a == null) {
+			return b == null ? 0 : -1;
+		}
+		return b == null ? 1 : a.compareTo(b);
+	}
+
+	@Override
+	public String toString() {
+		return source + " -> " + destination;
+	}
+}
@@ -0,0 +1,182 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speed and latency of one download. Rates are sampled about once a second by
+ * the {@link TransferMetrics} of the managing {@link TurtleGet}, the average
+ * rate is an exponential moving average over roughly
+ * {@link TransferMetrics#AVERAGE_WINDOW} seconds.
+ */
+public class DownloadMetrics implements DownloadMetricsMBean {
+
+	private final Download download;
+
+	private volatile boolean running;
+
+	private volatile long started;
+
+	private volatile long firstByte;
+
+	private volatile long connectTime = -1;
+
+	private long lastSample;
+
+	private long lastDownloaded;
+
+	private volatile double rate;
+
+	private volatile double averageRate;
+
+	private volatile int retries;
+
+	DownloadMetrics(Download download) {
+		this.download = download;
+	}
+
+	/**
+	 * Starts measuring a transfer that resumes from the given byte
+	 *
+	 * @param downloaded
+	 */
+	synchronized void started(long downloaded) {
+		started = System.nanoTime();
+		firstByte = 0;
+		connectTime = -1;
+		lastSample = started;
+		lastDownloaded = downloaded;
+		rate = 0;
+		averageRate = 0;
+		running = true;
+	}
+
+	/**
+	 * Called for every chunk written, only does work for the first one
+	 */
+	void transferred() {
+		if (firstByte == 0 && running) {
+			firstByte = System.nanoTime();
+		}
+	}
+
+	synchronized void retried() {
+		retries++;
+	}
+
+	void connected(long nanos) {
+		if (connectTime < 0) {
+			connectTime = nanos;
+		}
+	}
+
+	/**
+	 * Updates the rates
+	 *
+	 * @param now
+	 *            {@link System#nanoTime()}
+	 * @return bytes transferred since the previous sample
+	 */
+	synchronized long sample(long now) {
+		if (!running || now <= lastSample) {
+			return 0;
+		}
+		long downloaded = download.getDownload();
+		long bytes = Math.max(0, downloaded - lastDownloaded);
+		long elapsed = now - lastSample;
+		rate = bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		averageRate = TransferMetrics.average(averageRate, rate, elapsed, lastSample == started);
+		lastSample = now;
+		lastDownloaded = downloaded;
+		return bytes;
+	}
+
+	synchronized long stopped(long now) {
+		long bytes = sample(now);
+		running = false;
+		rate = 0;
+		return bytes;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public String getName() {
+		return download.getName();
+	}
+
+	@Override
+	public String getStatus() {
+		return String.valueOf(download.getStatus());
+	}
+
+	@Override
+	public long getSize() {
+		return download.getSize();
+	}
+
+	@Override
+	public long getDownloaded() {
+		return download.getDownload();
+	}
+
+	@Override
+	public double getPercent() {
+		return download.getPercent();
+	}
+
+	/**
+	 * Bytes per second over the last sample
+	 */
+	@Override
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Moving average of bytes per second
+	 */
+	@Override
+	public double getAverageRate() {
+		return averageRate;
+	}
+
+	/**
+	 * Seconds left at the average rate, -1 if unknown
+	 */
+	@Override
+	public long getEta() {
+		double averageRate = this.averageRate;
+		if (!running || averageRate <= 0 || download.getSize() <= 0) {
+			return -1;
+		}
+		return (long) Math.ceil(Math.max(0, download.getSize() - download.getDownload()) / averageRate);
+	}
+
+	/**
+	 * Milliseconds from the start to the first byte written, -1 before it
+	 */
+	@Override
+	public long getTimeToFirstByte() {
+		long firstByte = this.firstByte;
+		return firstByte == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstByte - started);
+	}
+
+	/**
+	 * Milliseconds it took to open the source, -1 before it was opened
+	 */
+	@Override
+	public long getConnectTime() {
+		long connectTime = this.connectTime;
+		return connectTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(connectTime);
+	}
+
+	/**
+	 * Times the transfer was resumed after a failure
+	 */
+	@Override
+	public int getRetries() {
+		return retries;
+	}
+}
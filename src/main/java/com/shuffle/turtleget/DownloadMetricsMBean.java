@@ -0,0 +1,29 @@
+package com.shuffle.turtleget;
+
+/**
+ * JMX view of a running download
+ */
+public interface DownloadMetricsMBean {
+
+	String getName();
+
+	String getStatus();
+
+	long getSize();
+
+	long getDownloaded();
+
+	double getPercent();
+
+	double getRate();
+
+	double getAverageRate();
+
+	long getEta();
+
+	long getTimeToFirstByte();
+
+	long getConnectTime();
+
+	int getRetries();
+}
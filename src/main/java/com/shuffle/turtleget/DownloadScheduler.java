@@ -0,0 +1,168 @@
+package com.shuffle.turtleget;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Starts {@link DownloadStatus#WAITING} downloads at their schedule date and
+ * tracks the {@link TransferWindow}s. All the timers share one thread and one
+ * delay queue, a timed download costs a queue entry and nothing else.
+ */
+class DownloadScheduler {
+
+	private static final transient Log log = LogFactory.getLog(DownloadScheduler.class);
+
+	private static final ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread thread = new Thread(r, "turtleget-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		executorService.setRemoveOnCancelPolicy(true);
+	}
+
+	private final Map<Download, ScheduledFuture<?>> timers = new ConcurrentHashMap<>();
+
+	private final List<TransferWindow> windows = new CopyOnWriteArrayList<>();
+
+	private final Consumer<Download> due;
+
+	private final Runnable windowsChanged;
+
+	private ScheduledFuture<?> windowTimer;
+
+	/**
+	 * @param due
+	 *            called on the scheduler thread when a download is due and
+	 *            still waiting
+	 * @param windowsChanged
+	 *            called when a transfer window opens or closes, or the windows
+	 *            are changed
+	 */
+	public DownloadScheduler(Consumer<Download> due, Runnable windowsChanged) {
+		this.due = due;
+		this.windowsChanged = windowsChanged;
+	}
+
+	public void schedule(Download download, Date when) {
+		long delay = Math.max(0, when.getTime() - System.currentTimeMillis());
+		ScheduledFuture<?> previous = timers.put(download, executorService.schedule(() -> fire(download), delay, TimeUnit.MILLISECONDS));
+		if (previous != null) {
+			previous.cancel(false);
+		}
+	}
+
+	public boolean cancel(Download download) {
+		ScheduledFuture<?> timer = timers.remove(download);
+		return timer != null && timer.cancel(false);
+	}
+
+	/**
+	 * Cancels every pending date and the transfer window timer
+	 */
+	public void shutdown() {
+		timers.keySet().forEach(this::cancel);
+		synchronized (this) {
+			if (windowTimer != null) {
+				windowTimer.cancel(false);
+				windowTimer = null;
+			}
+		}
+	}
+
+	private void fire(Download download) {
+		timers.remove(download);
+		if (download.getStatus() != DownloadStatus.WAITING) {
+			return;
+		}
+		try {
+			due.accept(download);
+		} catch (RuntimeException e) {
+			log.error("Could not start scheduled download " + download, e);
+		}
+	}
+
+	/**
+	 * Downloads waiting for their date
+	 *
+	 * @return
+	 */
+	public int getPending() {
+		return timers.size();
+	}
+
+	public List<TransferWindow> getWindows() {
+		return windows;
+	}
+
+	public void addWindow(TransferWindow window) {
+		windows.add(window);
+		windowsUpdated();
+	}
+
+	public void removeWindow(TransferWindow window) {
+		if (windows.remove(window)) {
+			windowsUpdated();
+		}
+	}
+
+	/**
+	 * Whether downloads may run now, always true with no windows
+	 *
+	 * @return
+	 */
+	public boolean isOpen() {
+		if (windows.isEmpty()) {
+			return true;
+		}
+		LocalDateTime now = LocalDateTime.now();
+		return windows.stream().anyMatch(w -> w.isOpen(now));
+	}
+
+	/**
+	 * Lowest limit of the open windows, 0 if none of them has one
+	 *
+	 * @return
+	 */
+	public long getBandwidthLimit() {
+		LocalDateTime now = LocalDateTime.now();
+		return windows.stream().filter(w -> w.isOpen(now) && w.getBandwidthLimit() > 0).mapToLong(TransferWindow::getBandwidthLimit).min().orElse(0);
+	}
+
+	private void windowsUpdated() {
+		synchronized (this) {
+			if (windowTimer != null) {
+				windowTimer.cancel(false);
+				windowTimer = null;
+			}
+			if (!windows.isEmpty()) {
+				LocalDateTime now = LocalDateTime.now();
+				LocalDateTime next = windows.stream().map(w -> w.nextChange(now)).min(LocalDateTime::compareTo).get();
+				long delay = next.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() - System.currentTimeMillis();
+				windowTimer = executorService.schedule(this::windowBoundary, Math.max(0, delay), TimeUnit.MILLISECONDS);
+			}
+		}
+		windowsChanged.run();
+	}
+
+	private void windowBoundary() {
+		try {
+			windowsUpdated();
+		} catch (RuntimeException e) {
+			log.error("Could not apply the transfer windows", e);
+		}
+	}
+}
@@ -1,5 +1,23 @@
 package com.shuffle.turtleget;
 
 public enum DownloadStatus {
-	STOPPED, IN_PROGRESS, COMPLETE, SCHEDULED
+	STOPPED, IN_PROGRESS, COMPLETE, SCHEDULED, WAITING;
+
+	/**
+	 * Whether a download in this status may move to the other one. A running
+	 * download can only stop or complete, a complete one stays complete.
+	 *
+	 * @param next
+	 * @return
+	 */
+	boolean canChangeTo(DownloadStatus next) {
+		switch (this) {
+		case IN_PROGRESS:
+			return next == STOPPED || next == COMPLETE;
+		case COMPLETE:
+			return false;
+		default:
+			return next != COMPLETE;
+		}
+	}
 }
@@ -0,0 +1,317 @@
+package com.shuffle.turtleget;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Delivers download events to the {@link DownloadListener}s and
+ * {@link TurtleGetListener}s on its own thread, so a slow listener never
+ * slows down a transfer.
+ *
+ * State changes (started, paused, finished, error) are delivered in the order
+ * they happened. Progress is coalesced per download: at most one progress
+ * event per download waits in the queue, it reports the values current at
+ * delivery time, and new ones are not queued more often than
+ * {@link #getProgressInterval()}. A progress update held back by the interval
+ * is delivered before the next state change of its download.
+ */
+public class EventDispatcher {
+
+	private static final transient Log log = LogFactory.getLog(EventDispatcher.class);
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	public static final long DEFAULT_PROGRESS_INTERVAL = 250;
+
+	/**
+	 * What happens to the transfer thread when the listeners are so behind
+	 * that the event queue is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Every event waits for room in the queue
+		 */
+		BLOCK,
+		/**
+		 * Progress events are skipped (and sent later) while the queue is
+		 * full, state changes still wait for room
+		 */
+		DROP_PROGRESS
+	}
+
+	private enum EventType {
+		STARTED, PAUSED, FINISHED, PROGRESS, ERROR
+	}
+
+	private static class Event {
+
+		private final EventType type;
+
+		private final Download download;
+
+		private final Exception exception;
+
+		public Event(EventType type, Download download, Exception exception) {
+			this.type = type;
+			this.download = download;
+			this.exception = exception;
+		}
+	}
+
+	private static class ProgressState {
+
+		private long lastQueued;
+
+		private boolean queued;
+
+		private boolean deferred;
+	}
+
+	private final BlockingQueue<Event> events;
+
+	private final Map<Download, ProgressState> progressStates = new ConcurrentHashMap<>();
+
+	private final List<TurtleGetListener> listener;
+
+	private volatile long progressInterval = TimeUnit.MILLISECONDS.toNanos(DEFAULT_PROGRESS_INTERVAL);
+
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	private final Thread thread;
+
+	private volatile boolean closed;
+
+	public EventDispatcher(List<TurtleGetListener> listener) {
+		this(listener, DEFAULT_CAPACITY);
+	}
+
+	public EventDispatcher(List<TurtleGetListener> listener, int capacity) {
+		this.listener = listener;
+		this.events = new ArrayBlockingQueue<>(capacity);
+		thread = new Thread(this::run, "turtleget-events");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Delivers the events already queued and stops the thread, later events
+	 * are dropped
+	 */
+	void close() {
+		closed = true;
+		thread.interrupt();
+	}
+
+	/**
+	 * Minimum time, in milliseconds, between two progress events of the same
+	 * download
+	 *
+	 * @return
+	 */
+	public long getProgressInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(progressInterval);
+	}
+
+	public void setProgressInterval(long progressInterval) {
+		if (progressInterval < 0) {
+			throw new IllegalArgumentException("progressInterval can't be negative");
+		}
+		this.progressInterval = TimeUnit.MILLISECONDS.toNanos(progressInterval);
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Events waiting to be delivered
+	 *
+	 * @return
+	 */
+	public int getPending() {
+		return events.size();
+	}
+
+	void started(Download download) {
+		state(new Event(EventType.STARTED, download, null), false);
+	}
+
+	void paused(Download download) {
+		state(new Event(EventType.PAUSED, download, null), true);
+	}
+
+	void finished(Download download) {
+		state(new Event(EventType.FINISHED, download, null), true);
+	}
+
+	void error(Download download, Exception exception) {
+		state(new Event(EventType.ERROR, download, exception), false);
+	}
+
+	void progress(Download download) {
+		ProgressState state = progressStates.computeIfAbsent(download, d -> new ProgressState());
+		synchronized (state) {
+			long now = System.nanoTime();
+			if (state.queued) {
+				return;
+			}
+			if (state.lastQueued != 0 && now - state.lastQueued < progressInterval) {
+				state.deferred = true;
+				return;
+			}
+			state.queued = true;
+			state.deferred = false;
+			state.lastQueued = now;
+		}
+		Event event = new Event(EventType.PROGRESS, download, null);
+		if (overflowPolicy == OverflowPolicy.BLOCK ? !put(event) : !events.offer(event)) {
+			synchronized (state) {
+				state.queued = false;
+				state.deferred = true;
+			}
+		}
+	}
+
+	private void state(Event event, boolean last) {
+		ProgressState state = last ? progressStates.remove(event.download) : progressStates.get(event.download);
+		if (state != null) {
+			boolean deferred;
+			synchronized (state) {
+				deferred = state.deferred && !state.queued;
+				state.deferred = false;
+			}
+			if (deferred) {
+				put(new Event(EventType.PROGRESS, event.download, null));
+			}
+		}
+		put(event);
+	}
+
+	/**
+	 * Queues the event, waiting for room. Delivering it on the caller thread
+	 * could overtake the events of its download already queued, so an
+	 * interrupted state change keeps waiting and an interrupted progress is
+	 * given up, to be sent later. The interrupt is kept for the caller.
+	 *
+	 * @param event
+	 * @return false if the event wasn't queued
+	 */
+	private boolean put(Event event) {
+		if (closed) {
+			log.debug("Dispatcher closed, dropping " + event.type + " of " + event.download.getName());
+			return false;
+		}
+		if (events.offer(event)) {
+			return true;
+		}
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					events.put(event);
+					return true;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					if (event.type == EventType.PROGRESS) {
+						return false;
+					}
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void run() {
+		while (!closed) {
+			try {
+				deliver(events.take());
+			} catch (InterruptedException e) {
+				log.debug("Event dispatcher interrupted", e);
+			}
+		}
+		Event event;
+		while ((event = events.poll()) != null) {
+			deliver(event);
+		}
+	}
+
+	private void deliver(Event event) {
+		Download download = event.download;
+		if (event.type == EventType.PROGRESS) {
+			ProgressState state = progressStates.get(download);
+			if (state != null) {
+				synchronized (state) {
+					state.queued = false;
+				}
+			}
+		}
+		for (DownloadListener downloadListener : download.getListener()) {
+			try {
+				deliver(event, downloadListener);
+			} catch (RuntimeException e) {
+				log.error("Download listener failed on " + event.type, e);
+			}
+		}
+		for (TurtleGetListener turtleGetListener : listener) {
+			try {
+				deliver(event, turtleGetListener);
+			} catch (RuntimeException e) {
+				log.error("TurtleGet listener failed on " + event.type, e);
+			}
+		}
+	}
+
+	private void deliver(Event event, DownloadListener downloadListener) {
+		switch (event.type) {
+		case STARTED:
+			downloadListener.started();
+			break;
+		case PAUSED:
+			downloadListener.paused();
+			break;
+		case FINISHED:
+			downloadListener.finished();
+			break;
+		case PROGRESS:
+			downloadListener.progress();
+			break;
+		case ERROR:
+			downloadListener.error(event.exception);
+			break;
+		}
+	}
+
+	private void deliver(Event event, TurtleGetListener turtleGetListener) {
+		switch (event.type) {
+		case STARTED:
+			turtleGetListener.started(event.download);
+			break;
+		case PAUSED:
+			turtleGetListener.paused(event.download);
+			break;
+		case FINISHED:
+			turtleGetListener.finished(event.download);
+			break;
+		case PROGRESS:
+			turtleGetListener.progress(event.download);
+			break;
+		case ERROR:
+			turtleGetListener.error(event.download, event.exception);
+			break;
+		}
+	}
+}
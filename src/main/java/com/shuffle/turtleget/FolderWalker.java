@@ -0,0 +1,166 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+
+/**
+ * Lists folder trees with a bounded number of threads, sibling folders are
+ * listed in parallel and files are handed over as soon as their folder is
+ * listed, so downloads can start while the rest of the tree is still being
+ * walked.
+ *
+ * Listing tasks never wait on each other, every walk shares the same pool.
+ */
+class FolderWalker {
+
+	private static final transient Log log = LogFactory.getLog(FolderWalker.class);
+
+	public static final int DEFAULT_THREADS = 4;
+
+	/**
+	 * Receives each file found, may be called from several threads at once
+	 */
+	interface FileVisitor {
+		void visit(FileObject file) throws FileSystemException;
+
+		/**
+		 * Called for each subfolder before it is listed
+		 *
+		 * @param folder
+		 * @return false to leave the folder and everything under it out
+		 * @throws FileSystemException
+		 */
+		default boolean enter(FileObject folder) throws FileSystemException {
+			return true;
+		}
+	}
+
+	private final ThreadPoolExecutor executorService;
+
+	private final MetadataCache metadataCache;
+
+	public FolderWalker(MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+		executorService = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		executorService.allowCoreThreadTimeOut(true);
+	}
+
+	public int getThreads() {
+		return executorService.getMaximumPoolSize();
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		if (threads > executorService.getMaximumPoolSize()) {
+			executorService.setMaximumPoolSize(threads);
+			executorService.setCorePoolSize(threads);
+		} else {
+			executorService.setCorePoolSize(threads);
+			executorService.setMaximumPoolSize(threads);
+		}
+	}
+
+	/**
+	 * Lets the walks going on end and takes no new ones
+	 */
+	public void shutdown() {
+		executorService.shutdown();
+	}
+
+	/**
+	 * Visits every file under the folder, returns once the whole tree was
+	 * listed and visited
+	 *
+	 * @param folder
+	 * @param visitor
+	 * @throws FileSystemException
+	 *             the first error raised by a listing or by the visitor, the
+	 *             walk stops listing new folders after it
+	 */
+	public void walk(FileObject folder, FileVisitor visitor) throws FileSystemException {
+		Walk walk = new Walk(visitor);
+		walk.submit(folder);
+		walk.await();
+	}
+
+	private class Walk {
+
+		private final FileVisitor visitor;
+
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private volatile FileSystemException failure;
+
+		public Walk(FileVisitor visitor) {
+			this.visitor = visitor;
+		}
+
+		private void submit(FileObject folder) {
+			pending.incrementAndGet();
+			executorService.execute(() -> {
+				try {
+					if (failure == null) {
+						list(folder);
+					}
+				} catch (FileSystemException | RuntimeException e) {
+					fail(e);
+				} finally {
+					if (pending.decrementAndGet() == 0) {
+						synchronized (this) {
+							notifyAll();
+						}
+					}
+				}
+			});
+		}
+
+		private void list(FileObject folder) throws FileSystemException {
+			FileObject[] children = metadataCache.getChildren(folder);
+			if (log.isTraceEnabled()) {
+				log.trace(folder + " childrens : " + children.length);
+			}
+			for (FileObject child : children) {
+				if (metadataCache.isFolder(child) && visitor.enter(child)) {
+					submit(child);
+				}
+			}
+			for (FileObject child : children) {
+				if (failure != null) {
+					return;
+				}
+				if (!metadataCache.isFolder(child)) {
+					visitor.visit(child);
+				}
+			}
+		}
+
+		private synchronized void fail(Exception e) {
+			if (failure == null) {
+				failure = e instanceof FileSystemException ? (FileSystemException) e : new FileSystemException(e);
+			}
+		}
+
+		private synchronized void await() throws FileSystemException {
+			while (pending.get() > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FileSystemException(e);
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.shuffle.turtleget;
+
+import java.util.Date;
+
+/**
+ * Completed download as kept in the {@link DownloadHistory}, plain strings
+ * and primitives only, nothing is resolved until
+ * {@link TurtleGet#resolve(HistoryEntry)} is called.
+ *
+ * URIs are stored as folder and name, the folder strings are shared by every
+ * entry of the same folder.
+ */
+public final class HistoryEntry {
+
+	private final String sourceFolder;
+
+	private final String sourceName;
+
+	private final String destinationFolder;
+
+	private final String destinationName;
+
+	private final long added;
+
+	private final long size;
+
+	private final String checksum;
+
+	final int hash;
+
+	/*
+	 * Index in the completion order of the history
+	 */
+	final int position;
+
+	HistoryEntry(String sourceFolder, String sourceName, String destinationFolder, String destinationName, long added, long size, String checksum, int hash, int position) {
+		this.sourceFolder = sourceFolder;
+		this.sourceName = sourceName;
+		this.destinationFolder = destinationFolder;
+		this.destinationName = destinationName;
+		this.added = added;
+		this.size = size;
+		this.checksum = checksum;
+		this.hash = hash;
+		this.position = position;
+	}
+
+	public String getSource() {
+		return sourceFolder + sourceName;
+	}
+
+	public String getDestination() {
+		return destinationFolder + destinationName;
+	}
+
+	public String getName() {
+		return sourceName;
+	}
+
+	public Date getAdded() {
+		return new Date(added);
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Digest the file was verified with, as <code>algorithm:hex</code>
+	 *
+	 * @return null if it wasn't verified
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Compares with the key without building the full URIs
+	 *
+	 * @param key
+	 * @return
+	 */
+	boolean matches(DownloadKey key) {
+		return hash == key.hashCode() && matches(sourceFolder, sourceName, key.getSource()) && matches(destinationFolder, destinationName, key.getDestination());
+	}
+
+	private static boolean matches(String folder, String name, String uri) {
+		return uri != null && uri.length() == folder.length() + name.length() && uri.startsWith(folder) && uri.endsWith(name);
+	}
+
+	DownloadData toDownloadData() {
+		DownloadData downloadData = new DownloadData(getSource(), getDestination(), getAdded());
+		downloadData.setSize(size);
+		downloadData.setChecksum(checksum);
+		return downloadData;
+	}
+
+	@Override
+	public String toString() {
+		return "HistoryEntry [source=" + getSource() + ", destination=" + getDestination() + ", added=" + getAdded() + ", size=" + size + ", checksum=" + checksum + "]";
+	}
+}
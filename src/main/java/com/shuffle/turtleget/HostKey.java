@@ -0,0 +1,28 @@
+package com.shuffle.turtleget;
+
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.provider.GenericFileName;
+
+/**
+ * Builds the <code>scheme://host:port</code> string used to group downloads
+ * by server
+ */
+final class HostKey {
+
+	private HostKey() {
+
+	}
+
+	public static String of(FileObject fileObject) {
+		return of(fileObject.getName());
+	}
+
+	public static String of(FileName fileName) {
+		if (fileName instanceof GenericFileName) {
+			GenericFileName genericFileName = (GenericFileName) fileName;
+			return genericFileName.getScheme() + "://" + genericFileName.getHostName() + ":" + genericFileName.getPort();
+		}
+		return fileName.getScheme() + "://";
+	}
+}
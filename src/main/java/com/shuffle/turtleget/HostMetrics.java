@@ -0,0 +1,78 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Errors, retries and connection setup latency of the downloads from one
+ * host, <code>scheme://host:port</code>
+ */
+public class HostMetrics implements HostMetricsMBean {
+
+	private final String host;
+
+	private final LongAdder errors = new LongAdder();
+
+	private final LongAdder retries = new LongAdder();
+
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+
+	HostMetrics(String host) {
+		this.host = host;
+	}
+
+	void error() {
+		errors.increment();
+	}
+
+	void retry() {
+		retries.increment();
+	}
+
+	void connected(long nanos) {
+		connectLatency.record(nanos);
+	}
+
+	@Override
+	public String getHost() {
+		return host;
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	public LatencyHistogram getConnectLatency() {
+		return connectLatency;
+	}
+
+	@Override
+	public long getConnects() {
+		return connectLatency.getCount();
+	}
+
+	@Override
+	public double getConnectLatencyMean() {
+		return connectLatency.getMean();
+	}
+
+	@Override
+	public double getConnectLatencyMedian() {
+		return connectLatency.getPercentile(50);
+	}
+
+	@Override
+	public double getConnectLatency99thPercentile() {
+		return connectLatency.getPercentile(99);
+	}
+
+	@Override
+	public double getConnectLatencyMax() {
+		return connectLatency.getMax();
+	}
+}
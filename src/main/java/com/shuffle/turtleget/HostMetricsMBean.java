@@ -0,0 +1,23 @@
+package com.shuffle.turtleget;
+
+/**
+ * JMX view of the downloads from one host
+ */
+public interface HostMetricsMBean {
+
+	String getHost();
+
+	long getErrors();
+
+	long getRetries();
+
+	long getConnects();
+
+	double getConnectLatencyMean();
+
+	double getConnectLatencyMedian();
+
+	double getConnectLatency99thPercentile();
+
+	double getConnectLatencyMax();
+}
@@ -0,0 +1,98 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in power of two buckets of microseconds, bucket
+ * <code>i</code> counts latencies below <code>2^i</code> microseconds.
+ * Recording is lock and allocation free, percentiles are as precise as the
+ * bucket they fall into.
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private volatile long max;
+
+	public void record(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros)));
+		count.increment();
+		sum.add(micros);
+		if (micros > max) {
+			synchronized (this) {
+				if (micros > max) {
+					max = micros;
+				}
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return mean latency in milliseconds
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : sum.sum() / 1000.0 / count;
+	}
+
+	/**
+	 * @return highest latency in milliseconds
+	 */
+	public double getMax() {
+		return max / 1000.0;
+	}
+
+	/**
+	 * Upper bound of the bucket holding the percentile
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return latency in milliseconds
+	 */
+	public double getPercentile(double percentile) {
+		long[] counts = getBuckets();
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(1L << i, max) / 1000.0;
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Counts per bucket, bucket <code>i</code> holds latencies below
+	 * <code>2^i</code> microseconds
+	 *
+	 * @return
+	 */
+	public long[] getBuckets() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+}
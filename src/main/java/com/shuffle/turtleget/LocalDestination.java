@@ -0,0 +1,273 @@
+package com.shuffle.turtleget;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Writes a <code>file://</code> destination through a {@link FileChannel} at
+ * any position, so the file can be preallocated and written in ranges.
+ *
+ * How much of the file is valid is kept in a <code>.tgpart</code> marker next
+ * to it, updated after the data is forced to disk. A file with no marker is
+ * valid up to its length, which is also how complete files are left.
+ */
+class LocalDestination implements AutoCloseable {
+
+	private static final transient Log log = LogFactory.getLog(LocalDestination.class);
+
+	static final String MARKER_EXTENSION = ".tgpart";
+
+	private final FileObject destination;
+
+	private final Path path;
+
+	private final Path markerPath;
+
+	private final FileChannel channel;
+
+	private FileChannel marker;
+
+	private boolean tracked;
+
+	public LocalDestination(FileObject destination) throws IOException {
+		this.destination = destination;
+		this.path = path(destination);
+		this.markerPath = markerPath(this.path);
+		this.tracked = Files.exists(markerPath);
+		// the VFS output stream used to create the folders on the way
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Whether the file is a local one this class can write, or read from
+	 * without VFS
+	 *
+	 * @param file
+	 * @return
+	 */
+	public static boolean isLocal(FileObject file) {
+		return "file".equals(file.getName().getScheme());
+	}
+
+	static Path path(FileObject file) throws IOException {
+		return new File(file.getName().getPathDecoded()).toPath();
+	}
+
+	private static Path markerPath(Path path) {
+		return path.resolveSibling(path.getFileName() + MARKER_EXTENSION);
+	}
+
+	/**
+	 * How many bytes of the destination were written and can be resumed from
+	 *
+	 * @param destination
+	 * @return 0 if it doesn't exist
+	 * @throws IOException
+	 */
+	public static long validLength(FileObject destination) throws IOException {
+		Path path = path(destination);
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		Path markerPath = markerPath(path);
+		if (!Files.exists(markerPath)) {
+			return Files.size(path);
+		}
+		byte[] bytes = Files.readAllBytes(markerPath);
+		if (bytes.length != Long.BYTES) {
+			log.warn("Ignoring the corrupt marker of " + path + ", downloading it again");
+			return 0;
+		}
+		return Math.min(ByteBuffer.wrap(bytes).getLong(), Files.size(path));
+	}
+
+	/**
+	 * Deletes the file and its marker, so the next download starts over
+	 *
+	 * @param destination
+	 * @throws IOException
+	 */
+	public static void delete(FileObject destination) throws IOException {
+		Path path = path(destination);
+		Files.deleteIfExists(markerPath(path));
+		Files.deleteIfExists(path);
+	}
+
+	/**
+	 * Reserves the full length of the file up front, the valid length is
+	 * recorded first so the extra bytes are never taken as written
+	 *
+	 * @param validLength
+	 * @param size
+	 * @throws IOException
+	 */
+	public void preallocate(long validLength, long size) throws IOException {
+		if (channel.size() >= size) {
+			return;
+		}
+		checkpoint(validLength);
+		channel.write(ByteBuffer.allocate(1), size - 1);
+	}
+
+	public void write(byte[] bytes, int offset, int length, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Forces what was written to disk and records the valid length
+	 *
+	 * @param validLength
+	 * @throws IOException
+	 */
+	public void checkpoint(long validLength) throws IOException {
+		tracked = true;
+		channel.force(false);
+		if (marker == null) {
+			marker = FileChannel.open(markerPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, validLength);
+		while (buffer.hasRemaining()) {
+			marker.write(buffer, buffer.position());
+		}
+		marker.force(false);
+	}
+
+	/**
+	 * Cuts the file to its final size and drops the marker
+	 *
+	 * @param size
+	 *            bytes written, space preallocated past them is cut but never
+	 *            what was written
+	 * @throws IOException
+	 */
+	public void complete(long size) throws IOException {
+		if (channel.size() > size) {
+			channel.truncate(size);
+		}
+		channel.force(true);
+		if (marker != null) {
+			marker.close();
+			marker = null;
+		}
+		Files.deleteIfExists(markerPath);
+		tracked = false;
+	}
+
+	/**
+	 * Sequential writes from a position. Once the file has a marker each
+	 * flush is a checkpoint, before that the length of the file is enough.
+	 *
+	 * @param position
+	 * @return
+	 */
+	public PositionalOutputStream getOutputStream(long position) {
+		return new PositionalOutputStream(position);
+	}
+
+	class PositionalOutputStream extends OutputStream {
+
+		private long current;
+
+		private long checkpointed = -1;
+
+		private PositionalOutputStream(long position) {
+			this.current = position;
+		}
+
+		/**
+		 * Where the next write goes, the end of what was written
+		 *
+		 * @return
+		 */
+		public long getPosition() {
+			return current;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			LocalDestination.this.write(bytes, offset, length, current);
+			current += length;
+		}
+
+		/**
+		 * Writes what is left of the buffer, which can be a mapped file
+		 *
+		 * @param buffer
+		 * @throws IOException
+		 */
+		public void write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				current += channel.write(buffer, current);
+			}
+		}
+
+		/**
+		 * Lets the kernel copy straight from another file, nothing goes
+		 * through the heap
+		 *
+		 * @param source
+		 * @param position
+		 *            in the source
+		 * @param count
+		 * @return bytes copied, 0 at the end of the source
+		 * @throws IOException
+		 */
+		public long transferFrom(FileChannel source, long position, long count) throws IOException {
+			long transferred = source.transferTo(position, count, channel.position(current));
+			current += transferred;
+			return transferred;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (tracked && checkpointed != current && channel.isOpen()) {
+				checkpoint(current);
+				checkpointed = current;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				LocalDestination.this.close();
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (marker != null) {
+				marker.close();
+				marker = null;
+			}
+		} finally {
+			channel.close();
+			// the file object may still think the file doesn't exist
+			destination.refresh();
+		}
+	}
+}
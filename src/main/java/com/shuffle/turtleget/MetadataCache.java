@@ -0,0 +1,303 @@
+package com.shuffle.turtleget;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileType;
+
+/**
+ * Remembers the facts about remote files that cost a round-trip to ask again
+ * (type, size, last modified time, listing), so adding a folder and
+ * downloading its files reuse the same listing.
+ *
+ * Entries expire after {@link #getTtl()} and the least recently used are
+ * dropped beyond {@link #getMaxEntries()}. Anything written by TurtleGet is
+ * invalidated right after the write.
+ */
+public class MetadataCache {
+
+	public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	private static class Metadata {
+
+		private final long expires;
+
+		private FileType type;
+
+		private long size = -1;
+
+		private long lastModified = -1;
+
+		private FileObject[] children;
+
+		public Metadata(long expires) {
+			this.expires = expires;
+		}
+	}
+
+	private final Map<String, Metadata> entries = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+			if (size() > maxEntries) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private volatile long ttl = DEFAULT_TTL;
+
+	private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * How long, in milliseconds, a fact is trusted, 0 disables the cache
+	 *
+	 * @return
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(long ttl) {
+		if (ttl < 0) {
+			throw new IllegalArgumentException("ttl can't be negative");
+		}
+		this.ttl = ttl;
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be at least 1");
+		}
+		this.maxEntries = maxEntries;
+	}
+
+	public FileType getType(FileObject fileObject) throws FileSystemException {
+		Metadata metadata = metadata(fileObject);
+		synchronized (metadata) {
+			if (metadata.type != null) {
+				hits.increment();
+			} else {
+				misses.increment();
+				metadata.type = fileObject.getType();
+			}
+			return metadata.type;
+		}
+	}
+
+	public boolean exists(FileObject fileObject) throws FileSystemException {
+		return getType(fileObject) != FileType.IMAGINARY;
+	}
+
+	public boolean isFolder(FileObject fileObject) throws FileSystemException {
+		return getType(fileObject).hasChildren();
+	}
+
+	public boolean isFile(FileObject fileObject) throws FileSystemException {
+		return getType(fileObject) == FileType.FILE;
+	}
+
+	public long getSize(FileObject fileObject) throws FileSystemException {
+		Metadata metadata = metadata(fileObject);
+		synchronized (metadata) {
+			if (metadata.size >= 0) {
+				hits.increment();
+			} else {
+				misses.increment();
+				metadata.size = fileObject.getContent().getSize();
+			}
+			return metadata.size;
+		}
+	}
+
+	/**
+	 * Size of the file if a listing or an earlier lookup already gave it,
+	 * the server is never asked
+	 *
+	 * @param fileObject
+	 * @return -1 if it isn't known
+	 */
+	public long getCachedSize(FileObject fileObject) {
+		Metadata metadata;
+		synchronized (entries) {
+			metadata = entries.get(fileObject.getName().getURI());
+		}
+		if (metadata == null || metadata.expires <= System.currentTimeMillis()) {
+			return -1;
+		}
+		synchronized (metadata) {
+			if (metadata.size >= 0) {
+				hits.increment();
+			}
+			return metadata.size;
+		}
+	}
+
+	/**
+	 * Last modified time of a file or folder, as precise as the listing it
+	 * came from
+	 *
+	 * @param fileObject
+	 * @return 0 if the server doesn't tell
+	 * @throws FileSystemException
+	 */
+	public long getLastModified(FileObject fileObject) throws FileSystemException {
+		Metadata metadata = metadata(fileObject);
+		synchronized (metadata) {
+			if (metadata.lastModified >= 0) {
+				hits.increment();
+			} else {
+				misses.increment();
+				try {
+					metadata.lastModified = Math.max(0, fileObject.getContent().getLastModifiedTime());
+				} catch (FileSystemException e) {
+					// e.g. the root of an FTP server, which isn't in any listing
+					metadata.lastModified = 0;
+				}
+			}
+			return metadata.lastModified;
+		}
+	}
+
+	/**
+	 * Lists the folder, the type and size of each child are cached from the
+	 * same listing
+	 *
+	 * @param fileObject
+	 * @return
+	 * @throws FileSystemException
+	 */
+	public FileObject[] getChildren(FileObject fileObject) throws FileSystemException {
+		Metadata metadata = metadata(fileObject);
+		FileObject[] children;
+		synchronized (metadata) {
+			if (metadata.children != null) {
+				hits.increment();
+				return metadata.children;
+			}
+			misses.increment();
+			children = fileObject.getChildren();
+			metadata.children = children;
+		}
+		for (FileObject child : children) {
+			if (isFile(child)) {
+				getSize(child);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Forgets the file and the listing of its folder, call it after writing
+	 *
+	 * @param fileObject
+	 */
+	public void invalidate(FileObject fileObject) {
+		String uri = fileObject.getName().getURI();
+		String parentUri = fileObject.getName().getParent() == null ? null : fileObject.getName().getParent().getURI();
+		synchronized (entries) {
+			entries.remove(uri);
+			if (parentUri != null) {
+				entries.remove(parentUri);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the folder and everything known under it, and has VFS list it
+	 * again on the next look
+	 *
+	 * @param folder
+	 * @throws FileSystemException
+	 */
+	public void refresh(FileObject folder) throws FileSystemException {
+		forget(folder.getName().getURI());
+		// VFS only drops the listing of an attached file, and FTP can keep one
+		// while detached, asking the type attaches it
+		folder.getType();
+		folder.refresh();
+	}
+
+	private void forget(String uri) {
+		Metadata metadata;
+		synchronized (entries) {
+			metadata = entries.remove(uri);
+		}
+		if (metadata == null) {
+			return;
+		}
+		FileObject[] children;
+		synchronized (metadata) {
+			children = metadata.children;
+		}
+		if (children != null) {
+			for (FileObject child : children) {
+				forget(child.getName().getURI());
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	private Metadata metadata(FileObject fileObject) {
+		String uri = fileObject.getName().getURI();
+		long now = System.currentTimeMillis();
+		synchronized (entries) {
+			Metadata metadata = entries.get(uri);
+			if (metadata == null || metadata.expires <= now) {
+				metadata = new Metadata(now + ttl);
+				if (ttl > 0) {
+					entries.put(uri, metadata);
+				}
+			}
+			return metadata;
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MetadataCache [size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+}
@@ -0,0 +1,45 @@
+package com.shuffle.turtleget;
+
+/**
+ * How {@link TurtleGet#mirror(String, String)} brings a destination up to date
+ * with its source, shared by every mirror of a {@link TurtleGet}
+ */
+public class MirrorSettings {
+
+	private volatile boolean deleteRemoved;
+
+	private volatile boolean skipUnchangedFolders;
+
+	/**
+	 * Whether files gone from the source since the last mirror are deleted
+	 * from the destination, only files the mirror saw before are ever deleted
+	 *
+	 * @return
+	 */
+	public boolean isDeleteRemoved() {
+		return deleteRemoved;
+	}
+
+	public void setDeleteRemoved(boolean deleteRemoved) {
+		this.deleteRemoved = deleteRemoved;
+	}
+
+	/**
+	 * Whether a folder without subfolders that has the same last modified
+	 * time as in the last mirror is taken as unchanged without listing it
+	 * again. A folder's time changes when files are added, removed or renamed
+	 * in it but not when a file in it is rewritten in place, so only turn it
+	 * on for sources published by adding new files. Folders with subfolders,
+	 * whose time says nothing about the folders under them, and folders whose
+	 * server gives no time are always listed.
+	 *
+	 * @return
+	 */
+	public boolean isSkipUnchangedFolders() {
+		return skipUnchangedFolders;
+	}
+
+	public void setSkipUnchangedFolders(boolean skipUnchangedFolders) {
+		this.skipUnchangedFolders = skipUnchangedFolders;
+	}
+}
@@ -0,0 +1,211 @@
+package com.shuffle.turtleget;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Listing of a mirrored tree as seen by the last mirror: the size and last
+ * modified time of every file and the last modified time of every folder, by
+ * path relative to the mirrored folder. The root folder is the empty path.
+ *
+ * Kept in a file of its own per mirror, written aside and moved over the old
+ * one like the snapshot of the {@link TurtleGetJournal}.
+ */
+class MirrorSnapshot {
+
+	private static final transient Log log = LogFactory.getLog(MirrorSnapshot.class);
+
+	private static final int MAGIC = 0x54474d31;
+
+	static class Entry {
+
+		private final long size;
+
+		private final long lastModified;
+
+		public Entry(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Whether the file changed since, a time of 0 is unknown and compares
+		 * by size only
+		 *
+		 * @param size
+		 * @param lastModified
+		 * @return
+		 */
+		public boolean changed(long size, long lastModified) {
+			return this.size != size || (this.lastModified != 0 && lastModified != 0 && this.lastModified != lastModified);
+		}
+	}
+
+	private final SortedMap<String, Entry> files = new TreeMap<>();
+
+	private final SortedMap<String, Long> folders = new TreeMap<>();
+
+	public synchronized Entry getFile(String path) {
+		return files.get(path);
+	}
+
+	public synchronized void putFile(String path, long size, long lastModified) {
+		files.put(path, new Entry(size, lastModified));
+	}
+
+	/**
+	 * @param path
+	 * @return 0 if the folder wasn't seen or its time is unknown
+	 */
+	public synchronized long getFolder(String path) {
+		return folders.getOrDefault(path, 0L);
+	}
+
+	public synchronized void putFolder(String path, long lastModified) {
+		folders.put(path, lastModified);
+	}
+
+	/**
+	 * Whether the folder had no subfolders
+	 *
+	 * @param path
+	 * @return
+	 */
+	public synchronized boolean isLeaf(String path) {
+		return under(folders, path).keySet().stream().allMatch(path::equals);
+	}
+
+	/**
+	 * Takes everything under the folder from the other snapshot, for a folder
+	 * that wasn't listed again
+	 *
+	 * @param other
+	 * @param path
+	 */
+	public void carryOver(MirrorSnapshot other, String path) {
+		SortedMap<String, Entry> otherFiles;
+		SortedMap<String, Long> otherFolders;
+		synchronized (other) {
+			otherFiles = new TreeMap<>(under(other.files, path));
+			otherFolders = new TreeMap<>(under(other.folders, path));
+		}
+		synchronized (this) {
+			files.putAll(otherFiles);
+			folders.putAll(otherFolders);
+		}
+	}
+
+	private static <V> SortedMap<String, V> under(SortedMap<String, V> map, String path) {
+		if (path.isEmpty()) {
+			return map;
+		}
+		return map.subMap(path + "/", path + "/\uffff");
+	}
+
+	/**
+	 * Files of the other snapshot that are gone from this one
+	 *
+	 * @param other
+	 *            an older snapshot
+	 * @return
+	 */
+	public List<String> removedSince(MirrorSnapshot other) {
+		List<String> removed = new ArrayList<>();
+		synchronized (other) {
+			synchronized (this) {
+				for (String path : other.files.keySet()) {
+					if (!files.containsKey(path)) {
+						removed.add(path);
+					}
+				}
+			}
+		}
+		return removed;
+	}
+
+	public synchronized int getFiles() {
+		return files.size();
+	}
+
+	/**
+	 * Reads the snapshot left by the last mirror
+	 *
+	 * @param file
+	 * @return an empty snapshot if there is none or it can't be read
+	 */
+	public static MirrorSnapshot load(File file) {
+		MirrorSnapshot snapshot = new MirrorSnapshot();
+		if (!file.exists()) {
+			return snapshot;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a mirror snapshot");
+			}
+			for (int folders = in.readInt(); folders > 0; folders--) {
+				snapshot.folders.put(in.readUTF(), in.readLong());
+			}
+			for (int files = in.readInt(); files > 0; files--) {
+				snapshot.files.put(in.readUTF(), new Entry(in.readLong(), in.readLong()));
+			}
+		} catch (IOException e) {
+			log.error("Error loading mirror snapshot " + file + ", mirroring everything again", e);
+			return new MirrorSnapshot();
+		}
+		return snapshot;
+	}
+
+	public synchronized void save(File file) throws IOException {
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (FileOutputStream fileOutputStream = new FileOutputStream(tmpFile)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+			out.writeInt(MAGIC);
+			out.writeInt(folders.size());
+			for (Map.Entry<String, Long> folder : folders.entrySet()) {
+				out.writeUTF(folder.getKey());
+				out.writeLong(folder.getValue());
+			}
+			out.writeInt(files.size());
+			for (Map.Entry<String, Entry> entry : files.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().getSize());
+				out.writeLong(entry.getValue().getLastModified());
+			}
+			out.flush();
+			fileOutputStream.getFD().sync();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "MirrorSnapshot [files=" + files.size() + ", folders=" + folders.size() + "]";
+	}
+}
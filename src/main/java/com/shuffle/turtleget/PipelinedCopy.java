@@ -0,0 +1,213 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a stream with the reads and the writes on different threads, so a
+ * slow write or a flush doesn't leave the connection idle. The reader fills
+ * buffers from the {@link BufferPool} and hands them over through a queue of
+ * {@link TransferSettings#getPipelineDepth()} buffers, the writer writes them
+ * in order and gives them back. A full queue or an exhausted pool stops the
+ * reader until the writer catches up.
+ *
+ * Bytes are accounted to the download once written, a paused download stops
+ * reading and returns once what was read is on the destination.
+ */
+class PipelinedCopy {
+
+	private static final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "turtleget-writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final Chunk END = new Chunk(null, 0);
+
+	private final Download download;
+
+	private final BufferPool bufferPool;
+
+	private final TransferSettings settings;
+
+	private final BlockingQueue<Chunk> chunks;
+
+	private volatile Throwable failure;
+
+	private Future<Long> writer;
+
+	public PipelinedCopy(Download download, BufferPool bufferPool, TransferSettings settings) {
+		this.download = download;
+		this.bufferPool = bufferPool;
+		this.settings = settings;
+		this.chunks = new ArrayBlockingQueue<>(settings.getPipelineDepth());
+	}
+
+	/**
+	 * @param source
+	 * @param dest
+	 * @param throttle
+	 * @param checksum
+	 *            null if none is computed
+	 * @return bytes copied
+	 * @throws IOException
+	 *             the first error of either side
+	 */
+	public long copy(InputStream source, OutputStream dest, Throttle throttle, StreamChecksum checksum) throws IOException {
+		writer = executorService.submit(() -> write(dest, checksum));
+		long total;
+		try {
+			read(source, throttle);
+		} finally {
+			// even when the read failed, the destination is closed after this
+			// returns so the writer has to be done with it
+			handOver(END);
+			total = join(writer);
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new IOException(failure);
+		}
+		return total;
+	}
+
+	private long join(Future<Long> writer) throws IOException {
+		try {
+			return writer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the writes");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void read(InputStream source, Throttle throttle) throws IOException {
+		int size = settings.getBufferSize();
+		int maxSize = Math.max(size, settings.getMaxBufferSize());
+		int fullReads = 0;
+		while (download.getStatus() != DownloadStatus.STOPPED && failure == null && !writer.isDone()) {
+			byte[] buffer;
+			try {
+				buffer = bufferPool.acquire(size);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a buffer");
+			}
+			int numBytes;
+			try {
+				numBytes = source.read(buffer, 0, throttle.chunk(size));
+				// Technically, some read(byte[]) methods may return 0 and we
+				// cannot accept that as an indication of EOF.
+				if (numBytes == 0) {
+					int singleByte = source.read();
+					numBytes = singleByte < 0 ? -1 : 1;
+					buffer[0] = (byte) singleByte;
+				}
+			} catch (IOException | RuntimeException e) {
+				bufferPool.release(buffer);
+				throw e;
+			}
+			if (numBytes < 0) {
+				bufferPool.release(buffer);
+				break;
+			}
+			handOver(new Chunk(buffer, numBytes));
+			throttle.acquire(numBytes);
+			// grows like the AdaptiveBuffer of a plain copy
+			if (numBytes < size) {
+				fullReads = 0;
+			} else if (++fullReads >= AdaptiveBuffer.FULL_READS_TO_GROW && size < maxSize) {
+				size = (int) Math.min((long) size * 2, maxSize);
+				fullReads = 0;
+			}
+		}
+	}
+
+	private void handOver(Chunk chunk) throws InterruptedIOException {
+		try {
+			while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+				if ((chunk != END && failure != null) || writer.isDone()) {
+					// the writer is only draining or gone, no need to wait
+					// for it
+					if (chunk != END) {
+						bufferPool.release(chunk.buffer);
+					}
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			if (chunk != END) {
+				bufferPool.release(chunk.buffer);
+			}
+			throw new InterruptedIOException("Interrupted handing over a buffer");
+		}
+	}
+
+	private long write(OutputStream dest, StreamChecksum checksum) throws InterruptedException {
+		long total = 0;
+		long checkpointSize = settings.getCheckpointSize();
+		long nextCheckpoint = checkpointSize;
+		Chunk chunk;
+		while ((chunk = chunks.take()) != END) {
+			try {
+				if (failure == null) {
+					dest.write(chunk.buffer, 0, chunk.length);
+					if (checksum != null) {
+						checksum.update(chunk.buffer, 0, chunk.length);
+					}
+					total += chunk.length;
+					if (total >= nextCheckpoint) {
+						dest.flush();
+						nextCheckpoint = total + checkpointSize;
+					}
+					download.transferred(chunk.length);
+				}
+			} catch (Throwable e) {
+				// anything that escapes ends the writer and leaves the reader
+				// waiting on a full queue
+				failure = e;
+			} finally {
+				bufferPool.release(chunk.buffer);
+			}
+		}
+		try {
+			if (failure == null) {
+				dest.flush();
+			}
+		} catch (Throwable e) {
+			failure = e;
+		}
+		return total;
+	}
+
+	private static class Chunk {
+
+		private final byte[] buffer;
+
+		private final int length;
+
+		public Chunk(byte[] buffer, int length) {
+			this.buffer = buffer;
+			this.length = length;
+		}
+	}
+}
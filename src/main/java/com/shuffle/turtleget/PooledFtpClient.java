@@ -0,0 +1,65 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.UserAuthenticationData;
+import org.apache.commons.vfs2.provider.GenericFileName;
+import org.apache.commons.vfs2.provider.ftp.FTPClientWrapper;
+
+/**
+ * FTP connection that can be probed with NOOP while it waits in the pool
+ */
+class PooledFtpClient extends FTPClientWrapper {
+
+	/*
+	 * Set from createClient, which the super constructor already calls, so it
+	 * must not have an initializer
+	 */
+	private FTPClient ftpClient;
+
+	private volatile long lastUsed;
+
+	private volatile long lastNoop;
+
+	public PooledFtpClient(GenericFileName root, FileSystemOptions fileSystemOptions) throws FileSystemException {
+		super(root, fileSystemOptions);
+		lastUsed = lastNoop = System.currentTimeMillis();
+	}
+
+	@Override
+	protected FTPClient createClient(GenericFileName rootName, UserAuthenticationData authData) throws FileSystemException {
+		FTPClient client = super.createClient(rootName, authData);
+		ftpClient = client;
+		return client;
+	}
+
+	/**
+	 * Sends a NOOP, false if the connection is gone
+	 *
+	 * @return
+	 */
+	boolean keepAlive() {
+		lastNoop = System.currentTimeMillis();
+		FTPClient client = ftpClient;
+		try {
+			return client != null && client.isConnected() && client.sendNoOp();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void setLastUsed(long lastUsed) {
+		this.lastUsed = lastUsed;
+	}
+
+	long getLastNoop() {
+		return lastNoop;
+	}
+}
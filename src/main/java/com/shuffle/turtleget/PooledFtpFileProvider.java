@@ -0,0 +1,200 @@
+package com.shuffle.turtleget;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystem;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.provider.GenericFileName;
+import org.apache.commons.vfs2.provider.ftp.FtpFileProvider;
+
+/**
+ * FTP provider whose file systems keep a pool of logged in control
+ * connections per host instead of a single one, so sequential and concurrent
+ * downloads from the same server skip the connect and login.
+ *
+ * Idle connections are kept alive with NOOP every
+ * {@link #getKeepAliveInterval()} and closed after {@link #getIdleTimeout()}.
+ * {@link #getMaxActive()} caps the connections in use per server and
+ * {@link #getMaxIdle()} the ones kept waiting.
+ */
+public class PooledFtpFileProvider extends FtpFileProvider {
+
+	public static final int DEFAULT_MAX_IDLE = 4;
+
+	public static final int DEFAULT_MAX_ACTIVE = 0;
+
+	public static final long DEFAULT_MAX_WAIT = TimeUnit.MINUTES.toMillis(1);
+
+	public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+	public static final long DEFAULT_KEEP_ALIVE_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+	private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "turtleget-ftp-pool");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/*
+	 * Warm ups connect on threads of their own, an unreachable server would
+	 * hold up the keepalive and eviction of all the others for its whole
+	 * connect timeout
+	 */
+	private static final ExecutorService warmUpExecutorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "turtleget-ftp-warmup");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Set<PooledFtpFileSystem> fileSystems = new CopyOnWriteArraySet<>();
+
+	private volatile int maxIdle = DEFAULT_MAX_IDLE;
+
+	private volatile int maxActive = DEFAULT_MAX_ACTIVE;
+
+	private volatile long maxWait = DEFAULT_MAX_WAIT;
+
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+	private volatile long keepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+
+	private final ScheduledFuture<?> maintenance;
+
+	public PooledFtpFileProvider() {
+		maintenance = executorService.scheduleWithFixedDelay(this::maintain, 1, 1, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void close() {
+		maintenance.cancel(false);
+		super.close();
+	}
+
+	@Override
+	protected FileSystem doCreateFileSystem(FileName name, FileSystemOptions fileSystemOptions) throws FileSystemException {
+		GenericFileName rootName = (GenericFileName) name;
+		PooledFtpFileSystem fileSystem = new PooledFtpFileSystem(this, rootName, new PooledFtpClient(rootName, fileSystemOptions), fileSystemOptions);
+		fileSystems.add(fileSystem);
+		return fileSystem;
+	}
+
+	void closed(PooledFtpFileSystem fileSystem) {
+		fileSystems.remove(fileSystem);
+	}
+
+	/**
+	 * Opens a connection to the file's server in the background, if none is
+	 * idle, so the next transfer from there starts right away
+	 *
+	 * @param fileObject
+	 */
+	public void warmUp(FileObject fileObject) {
+		if (fileObject.getFileSystem() instanceof PooledFtpFileSystem) {
+			PooledFtpFileSystem fileSystem = (PooledFtpFileSystem) fileObject.getFileSystem();
+			if (fileSystem.getIdleCount() == 0 && fileSystem.startWarmUp()) {
+				warmUpExecutorService.execute(fileSystem::warmUp);
+			}
+		}
+	}
+
+	private void maintain() {
+		for (PooledFtpFileSystem fileSystem : fileSystems) {
+			fileSystem.maintain(idleTimeout, keepAliveInterval);
+		}
+	}
+
+	/**
+	 * Most idle connections kept per server, extra ones are closed when
+	 * returned
+	 *
+	 * @return
+	 */
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("maxIdle can't be negative");
+		}
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * Most connections in use at the same time per server, the next ones wait
+	 * for a connection to come back
+	 *
+	 * @return 0 if there is no limit
+	 */
+	public int getMaxActive() {
+		return maxActive;
+	}
+
+	public void setMaxActive(int maxActive) {
+		if (maxActive < 0) {
+			throw new IllegalArgumentException("maxActive can't be negative");
+		}
+		this.maxActive = maxActive;
+		for (PooledFtpFileSystem fileSystem : fileSystems) {
+			fileSystem.maxActiveChanged();
+		}
+	}
+
+	/**
+	 * Milliseconds a transfer waits for a connection when
+	 * {@link #getMaxActive()} are in use before it fails
+	 *
+	 * @return
+	 */
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	public void setMaxWait(long maxWait) {
+		if (maxWait < 0) {
+			throw new IllegalArgumentException("maxWait can't be negative");
+		}
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Milliseconds an unused connection is kept open
+	 *
+	 * @return
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout <= 0) {
+			throw new IllegalArgumentException("idleTimeout must be positive");
+		}
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Milliseconds between two NOOPs on an idle connection
+	 *
+	 * @return
+	 */
+	public long getKeepAliveInterval() {
+		return keepAliveInterval;
+	}
+
+	public void setKeepAliveInterval(long keepAliveInterval) {
+		if (keepAliveInterval <= 0) {
+			throw new IllegalArgumentException("keepAliveInterval must be positive");
+		}
+		this.keepAliveInterval = keepAliveInterval;
+	}
+}
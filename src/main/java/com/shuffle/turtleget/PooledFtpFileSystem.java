@@ -0,0 +1,249 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.provider.GenericFileName;
+import org.apache.commons.vfs2.provider.ftp.FTPClientWrapper;
+import org.apache.commons.vfs2.provider.ftp.FtpClient;
+import org.apache.commons.vfs2.provider.ftp.FtpFileSystem;
+
+/**
+ * FTP file system of one server that keeps up to
+ * {@link PooledFtpFileProvider#getMaxIdle()} idle connections instead of one.
+ * The most recently returned connection is handed out first, so the others
+ * age and get closed when the load goes down.
+ *
+ * At most {@link PooledFtpFileProvider#getMaxActive()} connections are handed
+ * out at the same time, the next borrowers wait for one to come back.
+ */
+class PooledFtpFileSystem extends FtpFileSystem {
+
+	private static final transient Log log = LogFactory.getLog(PooledFtpFileSystem.class);
+
+	private final PooledFtpFileProvider provider;
+
+	private final Deque<PooledFtpClient> idle = new ArrayDeque<>();
+
+	/*
+	 * Connections handed out and not returned yet, guarded by idle
+	 */
+	private int active;
+
+	private final AtomicBoolean warmingUp = new AtomicBoolean();
+
+	public PooledFtpFileSystem(PooledFtpFileProvider provider, GenericFileName rootName, PooledFtpClient ftpClient, FileSystemOptions fileSystemOptions) {
+		super(rootName, null, fileSystemOptions);
+		this.provider = provider;
+		idle.push(ftpClient);
+	}
+
+	@Override
+	public FtpClient getClient() throws FileSystemException {
+		borrow();
+		try {
+			PooledFtpClient client;
+			while ((client = poll()) != null) {
+				if (client.isConnected()) {
+					return client;
+				}
+			}
+			return createWrapper();
+		} catch (FileSystemException | RuntimeException e) {
+			giveBack();
+			throw e;
+		}
+	}
+
+	/**
+	 * Takes one of the {@link PooledFtpFileProvider#getMaxActive()}
+	 * connections, waiting up to {@link PooledFtpFileProvider#getMaxWait()}
+	 * for one to come back
+	 *
+	 * @throws FileSystemException
+	 */
+	private void borrow() throws FileSystemException {
+		synchronized (idle) {
+			long deadline = System.currentTimeMillis() + provider.getMaxWait();
+			int maxActive;
+			while ((maxActive = provider.getMaxActive()) > 0 && active >= maxActive) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new FileSystemException("vfs.provider.ftp/connect.error", new TimeoutException("All " + maxActive + " connections in use for " + provider.getMaxWait() + " ms"),
+							getRootName());
+				}
+				try {
+					idle.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FileSystemException(e);
+				}
+			}
+			active++;
+		}
+	}
+
+	private void giveBack() {
+		synchronized (idle) {
+			active--;
+			idle.notify();
+		}
+	}
+
+	@Override
+	public void putClient(FtpClient client) {
+		if (client == null) {
+			return;
+		}
+		if (client instanceof PooledFtpClient) {
+			((PooledFtpClient) client).setLastUsed(System.currentTimeMillis());
+		}
+		synchronized (idle) {
+			// parked before the slot is given back, so the next borrower
+			// takes it instead of opening another one
+			boolean parked = client instanceof PooledFtpClient && idle.size() < provider.getMaxIdle();
+			if (parked) {
+				idle.push((PooledFtpClient) client);
+			}
+			active--;
+			idle.notify();
+			if (parked) {
+				return;
+			}
+		}
+		close(client);
+	}
+
+	@Override
+	protected FTPClientWrapper createWrapper() throws FileSystemException {
+		return new PooledFtpClient((GenericFileName) getRootName(), getFileSystemOptions());
+	}
+
+	private PooledFtpClient poll() {
+		synchronized (idle) {
+			return idle.poll();
+		}
+	}
+
+	int getIdleCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	/**
+	 * Wakes up the borrowers waiting, after the limit was raised
+	 */
+	void maxActiveChanged() {
+		synchronized (idle) {
+			idle.notifyAll();
+		}
+	}
+
+	int getActiveCount() {
+		synchronized (idle) {
+			return active;
+		}
+	}
+
+	/**
+	 * Claims the warm up of this server, false if one is already going on
+	 *
+	 * @return
+	 */
+	boolean startWarmUp() {
+		return warmingUp.compareAndSet(false, true);
+	}
+
+	/**
+	 * Opens and parks a connection if none is idle and the
+	 * {@link PooledFtpFileProvider#getMaxActive()} leaves room for one
+	 */
+	void warmUp() {
+		try {
+			synchronized (idle) {
+				int maxActive = provider.getMaxActive();
+				if (!idle.isEmpty() || (maxActive > 0 && active >= maxActive)) {
+					return;
+				}
+				active++;
+			}
+			try {
+				putClient(createWrapper());
+				log.debug("Warmed up a connection to " + getRootName());
+			} catch (FileSystemException | RuntimeException e) {
+				giveBack();
+				log.debug("Could not warm up a connection to " + getRootName(), e);
+			}
+		} finally {
+			warmingUp.set(false);
+		}
+	}
+
+	/**
+	 * Closes the connections idle for longer than the timeout and sends NOOP
+	 * on the ones quiet for longer than the interval
+	 *
+	 * @param idleTimeout
+	 * @param keepAliveInterval
+	 */
+	void maintain(long idleTimeout, long keepAliveInterval) {
+		long now = System.currentTimeMillis();
+		List<PooledFtpClient> expired = new ArrayList<>();
+		List<PooledFtpClient> quiet = new ArrayList<>();
+		synchronized (idle) {
+			for (Iterator<PooledFtpClient> iterator = idle.iterator(); iterator.hasNext();) {
+				PooledFtpClient client = iterator.next();
+				if (now - client.getLastUsed() >= idleTimeout) {
+					expired.add(client);
+					iterator.remove();
+				} else if (now - Math.max(client.getLastUsed(), client.getLastNoop()) >= keepAliveInterval) {
+					quiet.add(client);
+					iterator.remove();
+				}
+			}
+		}
+		for (PooledFtpClient client : expired) {
+			close(client);
+		}
+		for (PooledFtpClient client : quiet) {
+			if (client.keepAlive()) {
+				synchronized (idle) {
+					idle.addLast(client);
+				}
+			} else {
+				close(client);
+			}
+		}
+	}
+
+	@Override
+	protected void doCloseCommunicationLink() {
+		provider.closed(this);
+		PooledFtpClient client;
+		while ((client = poll()) != null) {
+			close(client);
+		}
+		super.doCloseCommunicationLink();
+	}
+
+	private void close(FtpClient client) {
+		try {
+			if (client.isConnected()) {
+				client.disconnect();
+			}
+		} catch (IOException e) {
+			log.warn("Could not close the connection to " + getRootName(), e);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.shuffle.turtleget;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks which scheduled download of a host starts next, the hosts still take
+ * turns as the {@link TransferScheduler} decides. The queue itself stays in
+ * the order downloads were added, so a policy can be switched at any time and
+ * applies from the next pick on.
+ *
+ * Sizes are the ones known before the transfer, from the listing the download
+ * was added with or looked up in the background for a policy that
+ * {@link #usesSize()}, downloads of unknown size rank as the biggest.
+ */
+public interface QueuePolicy {
+
+	/**
+	 * Order the downloads were added in
+	 */
+	QueuePolicy FIFO = new QueuePolicy() {
+
+		@Override
+		public Comparator<Download> order(long now) {
+			return Comparator.naturalOrder();
+		}
+
+		@Override
+		public String toString() {
+			return "FIFO";
+		}
+	};
+
+	/**
+	 * Smallest remaining download first, the lowest mean completion time when
+	 * sizes are known. A steady stream of small files can hold a big one
+	 * back indefinitely.
+	 */
+	QueuePolicy SHORTEST_FIRST = new QueuePolicy() {
+
+		@Override
+		public Comparator<Download> order(long now) {
+			return Comparator.comparingLong(QueuePolicy::remaining).thenComparing(Comparator.naturalOrder());
+		}
+
+		@Override
+		public boolean usesSize() {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "SHORTEST_FIRST";
+		}
+	};
+
+	/**
+	 * The ranking used for the next pick
+	 *
+	 * @param now
+	 *            {@link System#currentTimeMillis()} at the pick
+	 * @return the download to start first ranks lowest
+	 */
+	Comparator<Download> order(long now);
+
+	/**
+	 * Called when a download picked by the policy starts
+	 *
+	 * @param download
+	 */
+	default void started(Download download) {
+
+	}
+
+	/**
+	 * Whether the order depends on the size of the downloads
+	 *
+	 * @return
+	 */
+	default boolean usesSize() {
+		return false;
+	}
+
+	/**
+	 * Highest {@link Download#getPriority()} first, a download gains one
+	 * level for every <code>aging</code> milliseconds it waited since it was
+	 * added so low priorities still get their turn
+	 *
+	 * @param aging
+	 *            0 disables aging
+	 * @return
+	 */
+	static QueuePolicy priority(long aging) {
+		if (aging < 0) {
+			throw new IllegalArgumentException("aging can't be negative");
+		}
+		return new QueuePolicy() {
+
+			@Override
+			public Comparator<Download> order(long now) {
+				return Comparator.comparingDouble((Download download) -> -effectivePriority(download, now)).thenComparing(Comparator.naturalOrder());
+			}
+
+			private double effectivePriority(Download download, long now) {
+				if (aging == 0) {
+					return download.getPriority();
+				}
+				return download.getPriority() + Math.max(0, now - download.getAdded().getTime()) / (double) aging;
+			}
+
+			@Override
+			public String toString() {
+				return "PRIORITY [aging=" + aging + "]";
+			}
+		};
+	}
+
+	/**
+	 * Priority with one level per minute waited
+	 *
+	 * @return
+	 */
+	static QueuePolicy priority() {
+		return priority(TimeUnit.MINUTES.toMillis(1));
+	}
+
+	/**
+	 * Shares the transfers among the priority levels in proportion to their
+	 * weight, a level of weight 2 gets twice the bytes started of a level of
+	 * weight 1 while both have downloads waiting. Within a level downloads
+	 * start in the order they were added. A level coming back after being
+	 * idle doesn't get the turns it missed.
+	 *
+	 * @param weights
+	 *            weight of each priority level, levels without one weigh 1
+	 * @return
+	 */
+	static QueuePolicy weightedFair(Map<Integer, Integer> weights) {
+		Map<Integer, Integer> copy = new HashMap<>(weights);
+		copy.values().forEach(weight -> {
+			if (weight < 1) {
+				throw new IllegalArgumentException("weights must be at least 1");
+			}
+		});
+		return new WeightedFairPolicy(copy);
+	}
+
+	/**
+	 * Weighted fair with the weight of a level being the level plus one,
+	 * levels below 0 weigh 1
+	 *
+	 * @return
+	 */
+	static QueuePolicy weightedFair() {
+		return new WeightedFairPolicy(null);
+	}
+
+	/**
+	 * Bytes left to transfer, as far as known
+	 *
+	 * @param download
+	 * @return {@link Long#MAX_VALUE} if the size is unknown
+	 */
+	static long remaining(Download download) {
+		long size = download.getSize();
+		return size > 0 ? Math.max(0, size - download.getDownload()) : Long.MAX_VALUE;
+	}
+}
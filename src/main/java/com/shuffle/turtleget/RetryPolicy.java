@@ -0,0 +1,164 @@
+package com.shuffle.turtleget;
+
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+
+/**
+ * When a failed download is tried again. The delay doubles with every
+ * attempt up to {@link #getMaxDelay()}, with a random part so downloads
+ * cut off together don't reconnect together.
+ *
+ * An error is retryable when it or one of its causes is one of
+ * {@link #getRetryableExceptions()}, by default dropped connections and
+ * timeouts. The attempts start over once a retry makes progress.
+ */
+public class RetryPolicy {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+	public static final long DEFAULT_INITIAL_DELAY = TimeUnit.SECONDS.toMillis(1);
+
+	public static final long DEFAULT_MAX_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+	public static final double DEFAULT_JITTER = 0.5;
+
+	private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	private volatile long initialDelay = DEFAULT_INITIAL_DELAY;
+
+	private volatile long maxDelay = DEFAULT_MAX_DELAY;
+
+	private volatile double jitter = DEFAULT_JITTER;
+
+	private final List<Class<? extends Throwable>> retryableExceptions = new CopyOnWriteArrayList<>();
+
+	public RetryPolicy() {
+		retryableExceptions.add(SocketException.class);
+		retryableExceptions.add(SocketTimeoutException.class);
+		retryableExceptions.add(EOFException.class);
+		retryableExceptions.add(FTPConnectionClosedException.class);
+	}
+
+	/**
+	 * Retries after the first failure, 0 disables retrying
+	 *
+	 * @return
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 0) {
+			throw new IllegalArgumentException("maxAttempts can't be negative");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Milliseconds before the first retry
+	 *
+	 * @return
+	 */
+	public long getInitialDelay() {
+		return initialDelay;
+	}
+
+	public void setInitialDelay(long initialDelay) {
+		if (initialDelay < 0) {
+			throw new IllegalArgumentException("initialDelay can't be negative");
+		}
+		this.initialDelay = initialDelay;
+	}
+
+	/**
+	 * Milliseconds the delay stops growing at
+	 *
+	 * @return
+	 */
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	public void setMaxDelay(long maxDelay) {
+		if (maxDelay < 0) {
+			throw new IllegalArgumentException("maxDelay can't be negative");
+		}
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Fraction of the delay that is random, 0.5 waits between half and all
+	 * of it
+	 *
+	 * @return
+	 */
+	public double getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("jitter must be between 0 and 1");
+		}
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Exception types worth retrying, add or remove to change the
+	 * classification
+	 *
+	 * @return
+	 */
+	public List<Class<? extends Throwable>> getRetryableExceptions() {
+		return retryableExceptions;
+	}
+
+	public boolean isRetryable(Throwable exception) {
+		for (Throwable cause = exception; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			for (Class<? extends Throwable> retryable : retryableExceptions) {
+				if (retryable.isInstance(cause)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param exception
+	 * @param attempt
+	 *            the retry about to be made, starting at 1
+	 * @return
+	 */
+	public boolean shouldRetry(Throwable exception, int attempt) {
+		return attempt <= maxAttempts && isRetryable(exception);
+	}
+
+	/**
+	 * Milliseconds to wait before the retry
+	 *
+	 * @param attempt
+	 *            starting at 1
+	 * @return
+	 */
+	public long delay(int attempt) {
+		long delay = Math.min(maxDelay, initialDelay << Math.min(attempt - 1, 30));
+		if (delay < 0) {
+			delay = maxDelay;
+		}
+		return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy [maxAttempts=" + maxAttempts + ", initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", jitter=" + jitter + "]";
+	}
+}
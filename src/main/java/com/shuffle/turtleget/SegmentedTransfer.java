@@ -0,0 +1,303 @@
+package com.shuffle.turtleget;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.Capability;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.RandomAccessContent;
+import org.apache.commons.vfs2.util.RandomAccessMode;
+
+/**
+ * Downloads a file as several byte ranges, each one read over its own
+ * connection and written straight to its offset on the destination
+ */
+class SegmentedTransfer {
+
+	private static final transient Log log = LogFactory.getLog(SegmentedTransfer.class);
+
+	private static final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "turtleget-segment");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Download download;
+
+	private final FileObject source;
+
+	private final FileObject destination;
+
+	private final Segment[] segments;
+
+	private final Throttle throttle;
+
+	private LocalDestination localDestination;
+
+	private volatile boolean aborted;
+
+	private final AtomicLong sinceCheckpoint = new AtomicLong();
+
+	private long checkpointed;
+
+	public SegmentedTransfer(Download download, long size, int count, Throttle throttle) {
+		this.download = download;
+		this.throttle = throttle;
+		this.source = download.getSource();
+		this.destination = download.getDestination();
+		this.segments = new Segment[count];
+		long segmentSize = size / count;
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment(i * segmentSize, i == count - 1 ? size : (i + 1) * segmentSize);
+		}
+	}
+
+	/**
+	 * How many segments the download should be split into, 1 means a single
+	 * connection. The host slots of the extra segments are taken from the
+	 * manager and held until {@link TurtleGet#releaseSegments(Download)}.
+	 *
+	 * @param download
+	 * @param existingFileSize
+	 * @param settings
+	 * @return
+	 * @throws FileSystemException
+	 */
+	public static int segmentsFor(Download download, long existingFileSize, TransferSettings settings) throws FileSystemException {
+		if (settings.getSegments() < 2 || existingFileSize > 0) {
+			return 1;
+		}
+		if (LocalDestination.isLocal(download.getSource()) && LocalDestination.isLocal(download.getDestination())) {
+			// copied by the kernel, more connections don't help
+			return 1;
+		}
+		long count = Math.min(settings.getSegments(), download.getSize() / settings.getMinSegmentSize());
+		if (count < 2) {
+			return 1;
+		}
+		if (!download.getSource().getFileSystem().hasCapability(Capability.RANDOM_ACCESS_READ)
+				|| !download.getDestination().getFileSystem().hasCapability(Capability.RANDOM_ACCESS_WRITE)
+				|| !download.getDestination().getFileSystem().hasCapability(Capability.RANDOM_ACCESS_SET_LENGTH)) {
+			return 1;
+		}
+		TurtleGet downloadManager = download.getDownloadManager();
+		if (downloadManager != null) {
+			// every segment is a session on a host that may only allow a few,
+			// the download holds one slot and the others have to be free
+			count = 1 + downloadManager.acquireSegments(download, (int) count - 1);
+		}
+		return (int) count;
+	}
+
+	/**
+	 * Copies every segment, returns when all of them are done, the download
+	 * is paused or one of them fails.
+	 *
+	 * If the download does not complete, the destination is cut back to the
+	 * part that was fully written so it can be resumed from its length, local
+	 * files keep their length and record the part in their marker instead.
+	 * The marker is written before the first segment starts and moved along
+	 * as the part grows, a crash never leaves scattered ranges that look
+	 * valid.
+	 *
+	 * @throws Exception
+	 *             the first error raised by a segment
+	 */
+	public void run() throws Exception {
+		log.debug("Downloading " + download.getName() + " in " + segments.length + " segments");
+		if (LocalDestination.isLocal(destination)) {
+			localDestination = new LocalDestination(destination);
+			localDestination.checkpoint(0);
+			if (download.getTransferSettings().isPreallocate()) {
+				localDestination.preallocate(0, size());
+			}
+		} else if (!destination.exists()) {
+			destination.createFile();
+		}
+		try {
+			transfer();
+		} finally {
+			if (localDestination != null) {
+				localDestination.close();
+			}
+		}
+	}
+
+	private void transfer() throws Exception {
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 1; i < segments.length; i++) {
+			Segment segment = segments[i];
+			futures.add(executorService.submit(() -> {
+				copy(segment);
+				return null;
+			}));
+		}
+		Exception failure = null;
+		try {
+			copy(segments[0]);
+		} catch (Exception e) {
+			failure = e;
+		}
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+		}
+		if (!isComplete()) {
+			truncateToWrittenPrefix();
+		} else if (localDestination != null) {
+			localDestination.complete(size());
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void copy(Segment segment) throws IOException {
+		RandomAccessContent sourceContent = null;
+		RandomAccessContent destinationContent = null;
+		InputStream sourceIn = null;
+		try {
+			if (localDestination == null) {
+				destinationContent = destination.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+				destinationContent.seek(segment.position);
+			}
+			long connectStart = System.nanoTime();
+			sourceContent = source.getContent().getRandomAccessContent(RandomAccessMode.READ);
+			sourceContent.seek(segment.position);
+			sourceIn = sourceContent.getInputStream();
+			download.connected(System.nanoTime() - connectStart);
+			AdaptiveBuffer buffer = new AdaptiveBuffer(download.getTransferSettings());
+			while (segment.position < segment.end && !aborted && download.getStatus() != DownloadStatus.STOPPED) {
+				int numBytes = sourceIn.read(buffer.array(), 0, (int) Math.min(throttle.chunk(buffer.size()), segment.end - segment.position));
+				if (numBytes < 0) {
+					throw new EOFException("Source ended at " + segment.position + " before the end of the segment at " + segment.end);
+				}
+				if (localDestination != null) {
+					localDestination.write(buffer.array(), 0, numBytes, segment.position);
+				} else {
+					destinationContent.write(buffer.array(), 0, numBytes);
+				}
+				buffer.filled(numBytes);
+				segment.position += numBytes;
+				download.transferred(numBytes);
+				throttle.acquire(numBytes);
+				if (localDestination != null && sinceCheckpoint.addAndGet(numBytes) >= download.getTransferSettings().getCheckpointSize()) {
+					sinceCheckpoint.set(0);
+					checkpoint();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			aborted = true;
+			throw e;
+		} finally {
+			// FTP streams closed before EOF may complain while aborting the
+			// transfer, the bytes we need are already written
+			closeQuietly(sourceIn);
+			closeQuietly(sourceContent);
+			if (destinationContent != null) {
+				destinationContent.close();
+			}
+		}
+	}
+
+	private long size() {
+		return segments[segments.length - 1].end;
+	}
+
+	private boolean isComplete() {
+		for (Segment segment : segments) {
+			if (segment.position < segment.end) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * End of the part written from the start of the file without gaps
+	 *
+	 * @return
+	 */
+	private long writtenPrefix() {
+		long writtenPrefix = 0;
+		for (Segment segment : segments) {
+			writtenPrefix = segment.position;
+			if (segment.position < segment.end) {
+				break;
+			}
+		}
+		return writtenPrefix;
+	}
+
+	private synchronized void checkpoint() throws IOException {
+		long writtenPrefix = writtenPrefix();
+		if (writtenPrefix > checkpointed) {
+			localDestination.checkpoint(writtenPrefix);
+			checkpointed = writtenPrefix;
+		}
+	}
+
+	private void truncateToWrittenPrefix() throws IOException {
+		long writtenPrefix = writtenPrefix();
+		if (localDestination != null) {
+			// the rest stays allocated, the marker tells where to resume
+			localDestination.checkpoint(writtenPrefix);
+			return;
+		}
+		log.debug("Truncating " + download.getName() + " to " + writtenPrefix + " bytes");
+		RandomAccessContent destinationContent = destination.getContent().getRandomAccessContent(RandomAccessMode.READWRITE);
+		try {
+			destinationContent.setLength(writtenPrefix);
+		} finally {
+			destinationContent.close();
+		}
+	}
+
+	private void closeQuietly(InputStream inputStream) {
+		try {
+			if (inputStream != null) {
+				inputStream.close();
+			}
+		} catch (IOException e) {
+			log.debug("Error closing segment stream", e);
+		}
+	}
+
+	private void closeQuietly(RandomAccessContent randomAccessContent) {
+		try {
+			if (randomAccessContent != null) {
+				randomAccessContent.close();
+			}
+		} catch (IOException e) {
+			log.debug("Error closing segment content", e);
+		}
+	}
+
+	private static class Segment {
+
+		private volatile long position;
+
+		private final long end;
+
+		public Segment(long start, long end) {
+			this.position = start;
+			this.end = end;
+		}
+	}
+}
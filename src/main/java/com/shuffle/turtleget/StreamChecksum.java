@@ -0,0 +1,203 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Digest of a download fed with the bytes as they are written, so verifying
+ * the file needs no second read.
+ *
+ * In async mode the chunks are copied and hashed in order on a shared thread
+ * pool, a few chunk buffers are reused and the copy blocks while all of them
+ * are waiting to be hashed.
+ *
+ * The digest keeps the position it has hashed up to, a download resumed from
+ * that same length carries on with it, otherwise the existing prefix is
+ * hashed first.
+ */
+class StreamChecksum {
+
+	private static final int CHUNKS = 4;
+
+	private static final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "turtleget-checksum");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final ChecksumAlgorithm algorithm;
+
+	private final MessageDigest digest;
+
+	private final boolean async;
+
+	private final BlockingQueue<byte[]> chunks;
+
+	private CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
+
+	private long position;
+
+	public StreamChecksum(ChecksumAlgorithm algorithm, boolean async) {
+		this.algorithm = algorithm;
+		this.digest = algorithm.newDigest();
+		this.async = async;
+		this.chunks = async ? new ArrayBlockingQueue<>(CHUNKS) : null;
+		if (async) {
+			for (int i = 0; i < CHUNKS; i++) {
+				chunks.add(new byte[0]);
+			}
+		}
+	}
+
+	public ChecksumAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Bytes hashed so far
+	 *
+	 * @return
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Hashes the first bytes of the destination, in async mode on the hashing
+	 * thread ahead of the chunks that follow
+	 *
+	 * @param destination
+	 * @param length
+	 * @throws IOException
+	 */
+	public void prefix(FileObject destination, long length) throws IOException {
+		position += length;
+		if (!async) {
+			hash(destination, length);
+			return;
+		}
+		pending = pending.thenRunAsync(() -> {
+			try {
+				hash(destination, length);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executorService);
+	}
+
+	private void hash(FileObject destination, long length) throws IOException {
+		byte[] buffer = new byte[TransferSettings.DEFAULT_BUFFER_SIZE];
+		try (InputStream in = destination.getContent().getInputStream()) {
+			long remaining = length;
+			int numBytes;
+			while (remaining > 0 && (numBytes = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+				digest.update(buffer, 0, numBytes);
+				remaining -= numBytes;
+			}
+			if (remaining > 0) {
+				throw new IOException(destination.getName().getBaseName() + " is shorter than the " + length + " bytes to hash");
+			}
+		}
+	}
+
+	public void update(byte[] bytes, int offset, int length) throws IOException {
+		position += length;
+		if (!async) {
+			digest.update(bytes, offset, length);
+			return;
+		}
+		byte[] chunk = takeChunk(length);
+		System.arraycopy(bytes, offset, chunk, 0, length);
+		hash(chunk, length);
+	}
+
+	/**
+	 * Hashes what is left of the buffer, without copying it unless the
+	 * hashing is async
+	 *
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public void update(ByteBuffer buffer) throws IOException {
+		if (!async) {
+			position += buffer.remaining();
+			digest.update(buffer);
+			return;
+		}
+		while (buffer.hasRemaining()) {
+			int length = Math.min(buffer.remaining(), TransferSettings.DEFAULT_MAX_BUFFER_SIZE);
+			byte[] chunk = takeChunk(length);
+			buffer.get(chunk, 0, length);
+			position += length;
+			hash(chunk, length);
+		}
+	}
+
+	private byte[] takeChunk(int length) throws IOException {
+		byte[] chunk;
+		try {
+			chunk = chunks.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the checksum");
+		}
+		return chunk.length < length ? new byte[length] : chunk;
+	}
+
+	private void hash(byte[] chunk, int length) {
+		// runs even after a failed prefix so the chunk always comes back
+		pending = pending.whenCompleteAsync((result, failure) -> {
+			try {
+				if (failure == null) {
+					digest.update(chunk, 0, length);
+				}
+			} finally {
+				chunks.add(chunk);
+			}
+		}, executorService);
+	}
+
+	/**
+	 * Waits until every chunk given so far is hashed
+	 *
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		try {
+			pending.join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Completes the digest, which starts over from nothing afterwards
+	 *
+	 * @return lower case hex
+	 * @throws IOException
+	 */
+	public String finish() throws IOException {
+		sync();
+		position = 0;
+		return toHex(digest.digest());
+	}
+
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,60 @@
+package com.shuffle.turtleget;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The token buckets a running download goes through. With no limit set
+ * {@link #acquire(long)} is a few volatile reads.
+ */
+class Throttle {
+
+	private static final long MAX_SLEEP = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Download download;
+
+	private final TokenBucket[] buckets;
+
+	public Throttle(Download download, TokenBucket... buckets) {
+		this.download = download;
+		this.buckets = buckets;
+	}
+
+	/**
+	 * Size of the next read given the current limits
+	 *
+	 * @param size
+	 *            buffer size
+	 * @return
+	 */
+	public int chunk(int size) {
+		for (TokenBucket bucket : buckets) {
+			size = bucket.chunk(size);
+		}
+		return size;
+	}
+
+	/**
+	 * Accounts bytes just transferred and waits as long as the slowest bucket
+	 * requires, returning early if the download is paused
+	 *
+	 * @param bytes
+	 * @throws InterruptedIOException
+	 */
+	public void acquire(long bytes) throws InterruptedIOException {
+		long wait = 0;
+		for (TokenBucket bucket : buckets) {
+			wait = Math.max(wait, bucket.consume(bytes));
+		}
+		long deadline = System.nanoTime() + wait;
+		while (wait > 0 && download.getStatus() != DownloadStatus.STOPPED) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_SLEEP));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttled");
+			}
+			wait = deadline - System.nanoTime();
+		}
+	}
+}
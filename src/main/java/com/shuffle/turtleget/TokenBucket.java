@@ -0,0 +1,88 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket measured in bytes. Transfers take tokens after writing a chunk
+ * and are told how long to wait when they took more than the bucket had, so
+ * the bucket can go into debt but the average never exceeds the rate.
+ */
+class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Tokens saved while idle, as a fraction of a second of rate
+	 */
+	private static final int BURST_DIVISOR = 10;
+
+	private volatile long rate;
+
+	private double tokens;
+
+	private long lastRefill = System.nanoTime();
+
+	public TokenBucket(long rate) {
+		setRate(rate);
+	}
+
+	/**
+	 * Bytes per second, 0 means unlimited
+	 *
+	 * @return
+	 */
+	public long getRate() {
+		return rate;
+	}
+
+	public synchronized void setRate(long rate) {
+		if (rate < 0) {
+			throw new IllegalArgumentException("rate can't be negative");
+		}
+		this.rate = rate;
+		this.tokens = 0;
+		this.lastRefill = System.nanoTime();
+	}
+
+	public boolean isLimited() {
+		return rate > 0;
+	}
+
+	/**
+	 * Takes the tokens for bytes already transferred
+	 *
+	 * @param bytes
+	 * @return nanoseconds to wait before transferring more
+	 */
+	public long consume(long bytes) {
+		if (rate <= 0) {
+			return 0;
+		}
+		synchronized (this) {
+			long rate = this.rate;
+			if (rate <= 0) {
+				return 0;
+			}
+			long now = System.nanoTime();
+			tokens = Math.min((double) rate / BURST_DIVISOR, tokens + (double) (now - lastRefill) * rate / NANOS_PER_SECOND);
+			lastRefill = now;
+			tokens -= bytes;
+			return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / rate);
+		}
+	}
+
+	/**
+	 * Largest chunk worth reading at once at the current rate, so a slow
+	 * bucket is shared in small steps instead of long bursts and waits
+	 *
+	 * @param size
+	 * @return
+	 */
+	public int chunk(int size) {
+		long rate = this.rate;
+		if (rate <= 0) {
+			return size;
+		}
+		return (int) Math.max(1, Math.min(size, Math.max(rate / 20, 4096)));
+	}
+}
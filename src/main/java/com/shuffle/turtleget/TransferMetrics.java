@@ -0,0 +1,290 @@
+package com.shuffle.turtleget;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Metrics of all the downloads of a {@link TurtleGet}: aggregate throughput,
+ * per download speed and latency ({@link Download#getMetrics()}) and per host
+ * errors, retries and connection setup latency.
+ *
+ * Everything is also registered as MBeans under
+ * <code>com.shuffle.turtleget</code>, the running downloads as
+ * <code>type=Download</code> while they run.
+ */
+public class TransferMetrics implements TransferMetricsMBean {
+
+	private static final transient Log log = LogFactory.getLog(TransferMetrics.class);
+
+	/**
+	 * Seconds the moving averages roughly span
+	 */
+	public static final int AVERAGE_WINDOW = 10;
+
+	private static final long SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private static final String DOMAIN = "com.shuffle.turtleget";
+
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	private static final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "turtleget-metrics");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final TurtleGet turtleGet;
+
+	private final String name = "turtleget-" + instances.incrementAndGet();
+
+	private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+	private final Set<Download> active = ConcurrentHashMap.newKeySet();
+
+	private final Map<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+
+	private final LatencyHistogram connectLatency = new LatencyHistogram();
+
+	private final LongAdder completed = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private final LongAdder bytesTransferred = new LongAdder();
+
+	private final AtomicLong stoppedBytes = new AtomicLong();
+
+	private long lastSample = System.nanoTime();
+
+	private volatile double throughput;
+
+	private volatile double averageThroughput;
+
+	private final ScheduledFuture<?> sampler;
+
+	TransferMetrics(TurtleGet turtleGet) {
+		this.turtleGet = turtleGet;
+		register(objectName("TurtleGet", null), this);
+		sampler = executorService.scheduleAtFixedRate(this::sample, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops sampling and unregisters every MBean, the shared sampler thread
+	 * and the MBean server keep no reference to the manager afterwards
+	 */
+	void close() {
+		sampler.cancel(false);
+		for (Download download : active) {
+			if (active.remove(download)) {
+				unregister(objectName("Download", download.getDestination().getName().getURI()));
+			}
+		}
+		for (String host : hosts.keySet()) {
+			unregister(objectName("Host", host));
+		}
+		unregister(objectName("TurtleGet", null));
+	}
+
+	static double average(double average, double rate, long elapsed, boolean first) {
+		if (first) {
+			return rate;
+		}
+		double alpha = 1 - Math.exp(-elapsed / (double) TimeUnit.SECONDS.toNanos(AVERAGE_WINDOW));
+		return average + alpha * (rate - average);
+	}
+
+	private synchronized void sample() {
+		long now = System.nanoTime();
+		long bytes = stoppedBytes.getAndSet(0);
+		for (Download download : active) {
+			bytes += download.getMetrics().sample(now);
+		}
+		bytesTransferred.add(bytes);
+		throughput = bytes * (double) TimeUnit.SECONDS.toNanos(1) / (now - lastSample);
+		averageThroughput = average(averageThroughput, throughput, now - lastSample, averageThroughput == 0);
+		lastSample = now;
+	}
+
+	void started(Download download) {
+		if (active.add(download)) {
+			register(objectName("Download", download.getDestination().getName().getURI()), download.getMetrics());
+		}
+	}
+
+	private void stopped(Download download) {
+		if (active.remove(download)) {
+			stoppedBytes.addAndGet(download.getMetrics().stopped(System.nanoTime()));
+			unregister(objectName("Download", download.getDestination().getName().getURI()));
+		}
+	}
+
+	void paused(Download download) {
+		stopped(download);
+	}
+
+	void finished(Download download) {
+		stopped(download);
+		completed.increment();
+	}
+
+	void error(Download download) {
+		stopped(download);
+		failed.increment();
+		host(download).error();
+	}
+
+	void retried(Download download) {
+		host(download).retry();
+	}
+
+	void connected(Download download, long nanos) {
+		connectLatency.record(nanos);
+		host(download).connected(nanos);
+	}
+
+	private HostMetrics host(Download download) {
+		return hosts.computeIfAbsent(download.getHost(), host -> {
+			HostMetrics hostMetrics = new HostMetrics(host);
+			register(objectName("Host", host), hostMetrics);
+			return hostMetrics;
+		});
+	}
+
+	/**
+	 * @param host
+	 *            as <code>scheme://host:port</code>
+	 * @return null if nothing was downloaded from the host yet
+	 */
+	public HostMetrics getHost(String host) {
+		return hosts.get(host);
+	}
+
+	public Collection<HostMetrics> getHosts() {
+		return Collections.unmodifiableCollection(hosts.values());
+	}
+
+	public LatencyHistogram getConnectLatency() {
+		return connectLatency;
+	}
+
+	/**
+	 * Name of the manager in the MBean names
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	private ObjectName objectName(String type, String key) {
+		try {
+			return new ObjectName(DOMAIN + ":type=" + type + (key == null ? ",name=" + name : ",manager=" + name + ",name=" + ObjectName.quote(key)));
+		} catch (JMException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private void register(ObjectName objectName, Object mBean) {
+		try {
+			mBeanServer.registerMBean(mBean, objectName);
+		} catch (JMException e) {
+			log.debug("Could not register MBean " + objectName, e);
+		}
+	}
+
+	private void unregister(ObjectName objectName) {
+		try {
+			mBeanServer.unregisterMBean(objectName);
+		} catch (JMException e) {
+			log.debug("Could not unregister MBean " + objectName, e);
+		}
+	}
+
+	@Override
+	public int getActiveDownloads() {
+		return active.size();
+	}
+
+	@Override
+	public int getQueuedDownloads() {
+		return turtleGet.getQueue().size();
+	}
+
+	@Override
+	public long getCompletedDownloads() {
+		return completed.sum();
+	}
+
+	@Override
+	public long getFailedDownloads() {
+		return failed.sum();
+	}
+
+	@Override
+	public long getBytesTransferred() {
+		return bytesTransferred.sum();
+	}
+
+	/**
+	 * Bytes per second of all the downloads over the last second
+	 */
+	@Override
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * Moving average of bytes per second of all the downloads
+	 */
+	@Override
+	public double getAverageThroughput() {
+		return averageThroughput;
+	}
+
+	@Override
+	public long getErrors() {
+		return hosts.values().stream().mapToLong(HostMetrics::getErrors).sum();
+	}
+
+	@Override
+	public long getRetries() {
+		return hosts.values().stream().mapToLong(HostMetrics::getRetries).sum();
+	}
+
+	@Override
+	public double getConnectLatencyMean() {
+		return connectLatency.getMean();
+	}
+
+	@Override
+	public double getConnectLatencyMedian() {
+		return connectLatency.getPercentile(50);
+	}
+
+	@Override
+	public double getConnectLatency99thPercentile() {
+		return connectLatency.getPercentile(99);
+	}
+
+	@Override
+	public double getConnectLatencyMax() {
+		return connectLatency.getMax();
+	}
+}
@@ -0,0 +1,33 @@
+package com.shuffle.turtleget;
+
+/**
+ * JMX view of all the downloads of a {@link TurtleGet}
+ */
+public interface TransferMetricsMBean {
+
+	int getActiveDownloads();
+
+	int getQueuedDownloads();
+
+	long getCompletedDownloads();
+
+	long getFailedDownloads();
+
+	long getBytesTransferred();
+
+	double getThroughput();
+
+	double getAverageThroughput();
+
+	long getErrors();
+
+	long getRetries();
+
+	double getConnectLatencyMean();
+
+	double getConnectLatencyMedian();
+
+	double getConnectLatency99thPercentile();
+
+	double getConnectLatencyMax();
+}
@@ -0,0 +1,298 @@
+package com.shuffle.turtleget;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps track of the transfer slots used by a {@link TurtleGet} and runs the
+ * downloads on a shared pool, never more than {@link #getMaxConcurrentDownloads()}
+ * at the same time.
+ *
+ * Each host can have a lower limit of its own, the extra connections of a
+ * segmented download count against it too. An FTP host is also limited to
+ * the {@link PooledFtpFileProvider#getMaxActive()} connections of its pool,
+ * so transfers queue here instead of waiting for a connection. Free slots go to the host
+ * served least recently, so a host with a long queue or a tight limit
+ * doesn't hold back the others.
+ */
+class TransferScheduler {
+
+	private static final transient Log log = LogFactory.getLog(TransferScheduler.class);
+
+	public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 1;
+
+	private final TurtleGet turtleGet;
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "turtleget-transfer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Set<Download> active = ConcurrentHashMap.newKeySet();
+
+	private volatile int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+
+	private final Map<String, Integer> hostLimits = new ConcurrentHashMap<>();
+
+	private volatile int maxConcurrentDownloadsPerHost;
+
+	private final Map<String, Integer> activePerHost = new HashMap<>();
+
+	private final Map<Download, Integer> segmentSlots = new HashMap<>();
+
+	private final Map<String, Long> lastServed = new HashMap<>();
+
+	private long served;
+
+	private volatile QueuePolicy queuePolicy = QueuePolicy.FIFO;
+
+	public TransferScheduler(TurtleGet turtleGet) {
+		this.turtleGet = turtleGet;
+	}
+
+	public int getMaxConcurrentDownloads() {
+		return maxConcurrentDownloads;
+	}
+
+	public QueuePolicy getQueuePolicy() {
+		return queuePolicy;
+	}
+
+	public void setQueuePolicy(QueuePolicy queuePolicy) {
+		if (queuePolicy == null) {
+			throw new IllegalArgumentException("queuePolicy can't be null");
+		}
+		this.queuePolicy = queuePolicy;
+	}
+
+	public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+		if (maxConcurrentDownloads < 1) {
+			throw new IllegalArgumentException("maxConcurrentDownloads must be at least 1");
+		}
+		this.maxConcurrentDownloads = maxConcurrentDownloads;
+	}
+
+	/**
+	 * Limit of the hosts without one of their own, 0 means only the overall
+	 * limit applies
+	 *
+	 * @return
+	 */
+	public int getMaxConcurrentDownloadsPerHost() {
+		return maxConcurrentDownloadsPerHost;
+	}
+
+	public void setMaxConcurrentDownloadsPerHost(int maxConcurrentDownloadsPerHost) {
+		if (maxConcurrentDownloadsPerHost < 0) {
+			throw new IllegalArgumentException("maxConcurrentDownloadsPerHost can't be negative");
+		}
+		this.maxConcurrentDownloadsPerHost = maxConcurrentDownloadsPerHost;
+	}
+
+	/**
+	 * @param host
+	 *            as <code>scheme://host:port</code>
+	 * @return 0 if only the overall limit applies
+	 */
+	public int getMaxConcurrentDownloads(String host) {
+		return hostLimits.getOrDefault(host, maxConcurrentDownloadsPerHost);
+	}
+
+	/**
+	 * @param host
+	 *            as <code>scheme://host:port</code>
+	 * @param maxConcurrentDownloads
+	 *            0 goes back to the per host default
+	 */
+	public void setMaxConcurrentDownloads(String host, int maxConcurrentDownloads) {
+		if (maxConcurrentDownloads < 0) {
+			throw new IllegalArgumentException("maxConcurrentDownloads can't be negative");
+		}
+		if (maxConcurrentDownloads == 0) {
+			hostLimits.remove(host);
+		} else {
+			hostLimits.put(host, maxConcurrentDownloads);
+		}
+	}
+
+	/**
+	 * The limit that applies to the host, its own one or the size of its
+	 * connection pool, whichever is lower
+	 *
+	 * @param host
+	 * @return 0 if only the overall limit applies
+	 */
+	private int limit(String host) {
+		int limit = getMaxConcurrentDownloads(host);
+		int maxActive = host.startsWith("ftp://") ? turtleGet.getFtpProvider().getMaxActive() : 0;
+		return maxActive == 0 || (limit != 0 && limit < maxActive) ? limit : maxActive;
+	}
+
+	public synchronized boolean hasFreeSlot(String host) {
+		int limit = limit(host);
+		return limit == 0 || activePerHost.getOrDefault(host, 0) < limit;
+	}
+
+	public boolean hasFreeSlot() {
+		return active.size() < maxConcurrentDownloads;
+	}
+
+	public int getActiveCount() {
+		return active.size();
+	}
+
+	/**
+	 * Takes a slot and starts the download on the pool
+	 *
+	 * @param download
+	 * @return false if there was no free slot or the download is already
+	 *         running
+	 */
+	public synchronized boolean submit(Download download) {
+		String host = download.getHost();
+		if (!hasFreeSlot() || !hasFreeSlot(host) || !active.add(download)) {
+			return false;
+		}
+		if (!download.changeStatus(DownloadStatus.IN_PROGRESS)) {
+			active.remove(download);
+			return false;
+		}
+		activePerHost.merge(host, 1, Integer::sum);
+		lastServed.put(host, ++served);
+		queuePolicy.started(download);
+		log.debug("added " + download + " to executor");
+		executorService.submit(() -> {
+			try {
+				return download.call();
+			} finally {
+				if (release(download)) {
+					log.warn("Download " + download.getName() + " ended without releasing its slot");
+					turtleGet.dispatch();
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Gives back the slot used by the download, safe to call more than once
+	 *
+	 * @param download
+	 * @return true if the download was holding a slot
+	 */
+	public synchronized boolean release(Download download) {
+		if (!active.remove(download)) {
+			return false;
+		}
+		releaseSegments(download);
+		activePerHost.computeIfPresent(download.getHost(), (host, count) -> count > 1 ? count - 1 : null);
+		return true;
+	}
+
+	/**
+	 * Takes host slots for the extra connections of a segmented download, on
+	 * top of the one it runs in
+	 *
+	 * @param download
+	 * @param wanted
+	 * @return how many extra connections the download may open
+	 */
+	public synchronized int acquireSegments(Download download, int wanted) {
+		String host = download.getHost();
+		int limit = limit(host);
+		if (limit == 0) {
+			return wanted;
+		}
+		int taken = Math.max(0, Math.min(wanted, limit - activePerHost.getOrDefault(host, 0)));
+		if (taken > 0) {
+			activePerHost.merge(host, taken, Integer::sum);
+			segmentSlots.merge(download, taken, Integer::sum);
+		}
+		return taken;
+	}
+
+	/**
+	 * Gives back the slots taken by {@link #acquireSegments(Download, int)}
+	 *
+	 * @param download
+	 * @return true if the download was holding any
+	 */
+	public synchronized boolean releaseSegments(Download download) {
+		Integer taken = segmentSlots.remove(download);
+		if (taken == null) {
+			return false;
+		}
+		activePerHost.computeIfPresent(download.getHost(), (host, count) -> count > taken ? count - taken : null);
+		return true;
+	}
+
+	/**
+	 * The scheduled download to start next: the one the
+	 * {@link QueuePolicy} ranks first among the downloads of the host served
+	 * least recently that has a free slot. A host never served before goes
+	 * first.
+	 *
+	 * @param queue
+	 *            in the order downloads were added
+	 * @return null if nothing can start
+	 */
+	public synchronized Download next(Collection<Download> queue) {
+		// the queue is already in FIFO order, the first download found for the
+		// right host can't be beaten
+		Comparator<Download> order = queuePolicy == QueuePolicy.FIFO ? null : queuePolicy.order(System.currentTimeMillis());
+		String leastServed = null;
+		long leastServedAt = Long.MAX_VALUE;
+		for (Map.Entry<String, Long> entry : lastServed.entrySet()) {
+			if (entry.getValue() < leastServedAt && hasFreeSlot(entry.getKey())) {
+				leastServed = entry.getKey();
+				leastServedAt = entry.getValue();
+			}
+		}
+		Map<String, Download> candidates = new HashMap<>();
+		for (Download download : queue) {
+			if (download.getStatus() != DownloadStatus.SCHEDULED) {
+				continue;
+			}
+			String host = download.getHost();
+			Download candidate = candidates.get(host);
+			if (candidate == null ? !hasFreeSlot(host) : order == null || order.compare(candidate, download) <= 0) {
+				continue;
+			}
+			if (order == null && (!lastServed.containsKey(host) || host.equals(leastServed))) {
+				return download;
+			}
+			candidates.put(host, download);
+		}
+		// hosts with nothing queued or running don't need their turn kept
+		lastServed.keySet().removeIf(host -> !candidates.containsKey(host) && !activePerHost.containsKey(host));
+		Comparator<Download> turns = Comparator.comparingLong(download -> lastServed.getOrDefault(download.getHost(), 0L));
+		return candidates.values().stream().min(turns.thenComparing(order == null ? Comparator.naturalOrder() : order)).orElse(null);
+	}
+
+	/**
+	 * Lets the running downloads end and takes no new ones
+	 */
+	public void shutdown() {
+		executorService.shutdown();
+	}
+
+	/**
+	 * Downloads holding a slot right now
+	 *
+	 * @return
+	 */
+	public Set<Download> getActive() {
+		return Collections.unmodifiableSet(active);
+	}
+}
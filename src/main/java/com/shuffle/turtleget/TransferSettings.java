@@ -0,0 +1,199 @@
+package com.shuffle.turtleget;
+
+/**
+ * Tuning of how a single download moves its bytes, shared by every download
+ * of a {@link TurtleGet}
+ */
+public class TransferSettings {
+
+	public static final int DEFAULT_SEGMENTS = 1;
+
+	public static final long DEFAULT_MIN_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+	public static final long DEFAULT_CHECKPOINT_SIZE = 8L * 1024 * 1024;
+
+	public static final int DEFAULT_PIPELINE_DEPTH = 4;
+
+	private volatile int segments = DEFAULT_SEGMENTS;
+
+	private volatile long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+
+	private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	private volatile int maxBufferSize = DEFAULT_MAX_BUFFER_SIZE;
+
+	private volatile long checkpointSize = DEFAULT_CHECKPOINT_SIZE;
+
+	private volatile ChecksumAlgorithm checksumAlgorithm;
+
+	private volatile boolean asyncChecksum;
+
+	private volatile RetryPolicy retryPolicy = new RetryPolicy();
+
+	private volatile boolean preallocate = true;
+
+	private volatile int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+	/**
+	 * How many connections a single file can be split into, 1 disables
+	 * segmented downloads
+	 *
+	 * @return
+	 */
+	public int getSegments() {
+		return segments;
+	}
+
+	public void setSegments(int segments) {
+		if (segments < 1) {
+			throw new IllegalArgumentException("segments must be at least 1");
+		}
+		this.segments = segments;
+	}
+
+	/**
+	 * Smallest byte range worth its own connection, files smaller than two
+	 * segments are downloaded over a single connection
+	 *
+	 * @return
+	 */
+	public long getMinSegmentSize() {
+		return minSegmentSize;
+	}
+
+	public void setMinSegmentSize(long minSegmentSize) {
+		if (minSegmentSize < 1) {
+			throw new IllegalArgumentException("minSegmentSize must be positive");
+		}
+		this.minSegmentSize = minSegmentSize;
+	}
+
+	/**
+	 * Size of the copy buffer a transfer starts with
+	 *
+	 * @return
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be positive");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Size the copy buffer can grow to while the source keeps filling it
+	 *
+	 * @return
+	 */
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	public void setMaxBufferSize(int maxBufferSize) {
+		if (maxBufferSize < 1) {
+			throw new IllegalArgumentException("maxBufferSize must be positive");
+		}
+		this.maxBufferSize = maxBufferSize;
+	}
+
+	/**
+	 * How many bytes are written between two flushes of the destination
+	 *
+	 * @return
+	 */
+	public long getCheckpointSize() {
+		return checkpointSize;
+	}
+
+	public void setCheckpointSize(long checkpointSize) {
+		if (checkpointSize < 1) {
+			throw new IllegalArgumentException("checkpointSize must be positive");
+		}
+		this.checkpointSize = checkpointSize;
+	}
+
+	/**
+	 * Digest computed while downloading and checked against the expected
+	 * checksum or a sidecar file next to the source, null disables it
+	 *
+	 * @return
+	 */
+	public ChecksumAlgorithm getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	public void setChecksumAlgorithm(ChecksumAlgorithm checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	/**
+	 * Whether the digest is computed on its own thread instead of the one
+	 * copying, worth it for the slower digests on fast links
+	 *
+	 * @return
+	 */
+	public boolean isAsyncChecksum() {
+		return asyncChecksum;
+	}
+
+	public void setAsyncChecksum(boolean asyncChecksum) {
+		this.asyncChecksum = asyncChecksum;
+	}
+
+	/**
+	 * Whether local destinations are extended to their full size before the
+	 * first byte is written, files that fit in one checkpoint are written as
+	 * they come
+	 *
+	 * @return
+	 */
+	public boolean isPreallocate() {
+		return preallocate;
+	}
+
+	public void setPreallocate(boolean preallocate) {
+		this.preallocate = preallocate;
+	}
+
+	/**
+	 * Buffers read from the source that can wait to be written, with
+	 * anything above 0 reads and writes run on their own threads
+	 *
+	 * @return
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	public void setPipelineDepth(int pipelineDepth) {
+		if (pipelineDepth < 0) {
+			throw new IllegalArgumentException("pipelineDepth can't be negative");
+		}
+		this.pipelineDepth = pipelineDepth;
+	}
+
+	/**
+	 * How a download that fails on the way is resumed, it keeps its transfer
+	 * slot while waiting
+	 *
+	 * @return
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		if (retryPolicy == null) {
+			throw new IllegalArgumentException("retryPolicy can't be null");
+		}
+		this.retryPolicy = retryPolicy;
+	}
+}
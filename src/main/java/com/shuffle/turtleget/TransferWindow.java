@@ -0,0 +1,100 @@
+package com.shuffle.turtleget;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * A recurring period in which downloads may run, e.g. every night from 01:00
+ * to 06:00, optionally capping the bandwidth while it is open. A window whose
+ * end is not after its start goes past midnight, the days are the ones it
+ * opens on.
+ */
+public final class TransferWindow {
+
+	private final Set<DayOfWeek> days;
+
+	private final LocalTime start;
+
+	private final LocalTime end;
+
+	private final long bandwidthLimit;
+
+	public TransferWindow(LocalTime start, LocalTime end) {
+		this(EnumSet.allOf(DayOfWeek.class), start, end, 0);
+	}
+
+	/**
+	 * @param days
+	 *            days the window opens on
+	 * @param start
+	 * @param end
+	 * @param bandwidthLimit
+	 *            bytes per second for all the downloads while open, 0 means
+	 *            unlimited
+	 */
+	public TransferWindow(Set<DayOfWeek> days, LocalTime start, LocalTime end, long bandwidthLimit) {
+		if (days.isEmpty()) {
+			throw new IllegalArgumentException("days can't be empty");
+		}
+		if (bandwidthLimit < 0) {
+			throw new IllegalArgumentException("bandwidthLimit can't be negative");
+		}
+		this.days = Collections.unmodifiableSet(EnumSet.copyOf(days));
+		this.start = start;
+		this.end = end;
+		this.bandwidthLimit = bandwidthLimit;
+	}
+
+	public Set<DayOfWeek> getDays() {
+		return days;
+	}
+
+	public LocalTime getStart() {
+		return start;
+	}
+
+	public LocalTime getEnd() {
+		return end;
+	}
+
+	public long getBandwidthLimit() {
+		return bandwidthLimit;
+	}
+
+	public boolean isOpen(LocalDateTime time) {
+		DayOfWeek day = time.getDayOfWeek();
+		LocalTime timeOfDay = time.toLocalTime();
+		if (start.isBefore(end)) {
+			return days.contains(day) && !timeOfDay.isBefore(start) && timeOfDay.isBefore(end);
+		}
+		return days.contains(day) && !timeOfDay.isBefore(start) || days.contains(day.minus(1)) && timeOfDay.isBefore(end);
+	}
+
+	/**
+	 * The next time after the given one at which the window may open or close
+	 *
+	 * @param time
+	 * @return
+	 */
+	LocalDateTime nextChange(LocalDateTime time) {
+		return min(next(time, start), next(time, end));
+	}
+
+	private static LocalDateTime next(LocalDateTime time, LocalTime timeOfDay) {
+		LocalDateTime next = time.toLocalDate().atTime(timeOfDay);
+		return next.isAfter(time) ? next : next.plusDays(1);
+	}
+
+	private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+		return a.isBefore(b) ? a : b;
+	}
+
+	@Override
+	public String toString() {
+		return "TransferWindow [days=" + days + ", start=" + start + ", end=" + end + ", bandwidthLimit=" + bandwidthLimit + "]";
+	}
+}
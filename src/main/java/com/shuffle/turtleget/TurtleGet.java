@@ -1,497 +1,1405 @@
-package com.shuffle.turtleget;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.apache.commons.vfs2.FileObject;
-import org.apache.commons.vfs2.FileSystemException;
-import org.apache.commons.vfs2.FileSystemManager;
-import org.apache.commons.vfs2.FileSystemOptions;
-import org.apache.commons.vfs2.VFS;
-import org.apache.commons.vfs2.provider.ftp.FtpFileSystemConfigBuilder;
-
-public class TurtleGet {
-
-	private static final transient Log log = LogFactory.getLog(TurtleGet.class);
-
-	private FileSystemManager fileSystemManager;
-
-	private FileSystemOptions ftpFileSystemOptions;
-
-	private Map<String, FileSystemOptions> fileSystemOptions = new HashMap<>();
-
-	private TurtleGetData data;
-
-	private SortedSet<Download> queue = new TreeSet<>();
-
-	private SortedSet<Download> history = new TreeSet<>();
-	
-	private static final File defaultDataFile = new File(System.getProperty("user.home") + File.separator + ".turtleget" + File.separator + "data.tg");
-
-	private File dataFile;
-	
-	private FileInputStream dataFileInputStream;
-
-	private ExecutorService executorService = Executors.newSingleThreadExecutor();
-
-	private TurtleGetListener downloadCallback = new DownloadCallback(this);
-
-	private List<TurtleGetListener> listener = new ArrayList<>();
-
-	public enum StartType {
-		AUTOMATICALLY, MANUALLY, SCHEDULE
-	}
-	
-	public TurtleGet() {
-		this(defaultDataFile);
-	}
-
-	public TurtleGet(File dataFile) {
-		try {
-			fileSystemManager = VFS.getManager();
-		} catch (FileSystemException e) {
-			throw new RuntimeException(e);
-		}
-		
-		this.dataFile = Optional.ofNullable(dataFile).orElse(defaultDataFile);
-		setupFtpFileSystemOptions();
-		initFileSystemOptions();
-		loadData();
-	}
-
-	//TODO Verify if file still exists on source (kinda fixed on thread error)
-	private void loadDataQueue() {
-		log.info("Loading saved queue");
-		for (DownloadData downloadData : data.getQueue()) {
-			try {
-				queue.add(new Download(fileSystemManager.resolveFile(downloadData.getSource(), getFileSystemOptions(downloadData.getSource())),
-						fileSystemManager.resolveFile(downloadData.getDestination(), getFileSystemOptions(downloadData.getDestination()))));
-			} catch (FileSystemException e) {
-				log.error("Error loading saved download queue");
-			}
-		}
-		log.info(queue);
-		log.info("Finished loading saved queue");
-	}
-
-	private void loadDataHistory() {
-		log.info("Loading download history");
-		for (DownloadData downloadData : data.getHistory()) {
-			try {
-				Download download = new Download(fileSystemManager.resolveFile(downloadData.getSource(), getFileSystemOptions(downloadData.getSource())),
-						fileSystemManager.resolveFile(downloadData.getDestination(), getFileSystemOptions(downloadData.getDestination())));
-				download.setStatus(DownloadStatus.COMPLETE);
-				history.add(download);
-			} catch (FileSystemException e) {
-				log.error("Error loading download history", e);
-			}
-		}
-		log.info(history);
-		log.info("Finished loading download history");
-	}
-
-	private void loadData() {
-		try {
-			log.debug("dataFile : " + dataFile.getAbsolutePath());
-			if (!dataFile.exists()) {
-				dataFile.getParentFile().mkdirs();
-				dataFile.createNewFile();
-			}
-			dataFileInputStream = new FileInputStream(dataFile);
-			ObjectInputStream objectInputStream = new ObjectInputStream(dataFileInputStream);
-			data = (TurtleGetData) objectInputStream.readObject();
-			objectInputStream.close();
-			loadDataHistory();
-			loadDataQueue();
-		} catch (IOException | ClassNotFoundException e) {
-			log.error("Error loading download manager data, creating new one", e);
-			data = new TurtleGetData();
-		}
-	}
-
-	private void saveDataQueue() {
-		data.getQueue().clear();
-		for (Download download : queue) {
-			data.getQueue().add(new DownloadData(download.getSource().getName().getURI(), download.getDestination().getName().getURI(), download.getAdded()));
-		}
-	}
-
-	private void saveDataHistory() {
-		data.getHistory().clear();
-		for (Download download : history) {
-			data.getHistory().add(new DownloadData(download.getSource().getName().getURI(), download.getDestination().getName().getURI(), download.getAdded()));
-		}
-	}
-
-	private void saveData() {
-		try {
-			saveDataQueue();
-			saveDataHistory();
-			ObjectOutputStream objectOutputStream = new ObjectOutputStream(new FileOutputStream(dataFile));
-			objectOutputStream.writeObject(data);
-			objectOutputStream.flush();
-			objectOutputStream.close();
-		} catch (IOException e) {
-			log.error("Error while saving download manager data, all data will be lost", e);
-		}
-	}
-
-	private void initFileSystemOptions() {
-		fileSystemOptions.put("ftp://", ftpFileSystemOptions);
-	}
-
-	private void setupFtpFileSystemOptions() {
-		FtpFileSystemConfigBuilder ftpFileSystemConfigBuilder = FtpFileSystemConfigBuilder.getInstance();
-		ftpFileSystemOptions = new FileSystemOptions();
-		ftpFileSystemConfigBuilder.setControlEncoding(ftpFileSystemOptions, "UTF-8");
-		ftpFileSystemConfigBuilder.setPassiveMode(ftpFileSystemOptions, true);
-		//TODO get timeout from properties
-		ftpFileSystemConfigBuilder.setSoTimeout(ftpFileSystemOptions, 10000);
-		ftpFileSystemConfigBuilder.setConnectTimeout(ftpFileSystemOptions, 10000);
-		ftpFileSystemConfigBuilder.setDataTimeout(ftpFileSystemOptions, 10000);
-		//FIX the not found file sometimes
-		ftpFileSystemConfigBuilder.setUserDirIsRoot(ftpFileSystemOptions, true);
-	}
-
-	private FileSystemOptions getFileSystemOptions(String path) {
-		for (String protocol : fileSystemOptions.keySet()) {
-			if (startsWithIgnoreCase(path, protocol)) {
-				return fileSystemOptions.get(protocol);
-			}
-		}
-		return null;
-	}
-
-	private List<FileObject> addFolderSubfolders(FileObject sourceFileObject) throws FileSystemException {
-		log.debug("add folder subfolders");
-		List<FileObject> sourcesFileObject = new ArrayList<>();
-		log.trace("sourceFileObject childrens : " + sourceFileObject.getChildren().length);
-		for (FileObject sourceFileObjectItem : sourceFileObject.getChildren()) {
-			log.trace("sourceFileObjectItem : " + sourceFileObjectItem);
-			log.trace("sourceFileObjectItem is folder : " + sourceFileObjectItem.isFolder());
-			if (!sourceFileObjectItem.isFolder()) {
-				sourcesFileObject.add(sourceFileObjectItem);
-			} else {
-				sourcesFileObject.addAll(addFolderSubfolders(sourceFileObjectItem));
-			}
-		}
-		return sourcesFileObject;
-	}
-
-	private FileObject resolveDestinationPathFromSource(FileObject sourceFileObject, FileObject destinationFileObject, String basePath) throws FileSystemException {
-		log.debug("resolving destination path from source");
-		String destinationPath = destinationFileObject.getName().getFriendlyURI();
-		if (destinationFileObject.isFile()) {
-			destinationPath = destinationFileObject.getParent().getName().getFriendlyURI();
-		}
-		return fileSystemManager.resolveFile(destinationPath + sourceFileObject.getName().getFriendlyURI().replace(basePath, ""));
-	}
-
-	private void createDestinationPath(FileObject destinationFileObject) throws FileSystemException {
-		log.debug("creating destination path");
-		log.trace("destinationFileObject : " + destinationFileObject);
-		log.trace("destinationFileObject is folder : " + destinationFileObject.isFolder());
-		log.trace("destinationFileObject exists : " + destinationFileObject.exists());
-		if (destinationFileObject.isFolder()) {
-			destinationFileObject.createFolder();
-		} else if (!destinationFileObject.exists()) {
-			destinationFileObject.createFolder();
-		} else {
-			destinationFileObject.getParent().createFolder();
-		}
-	}
-
-	private List<FileObject> setupSourceFiles(FileObject sourceFileObject) throws FileSystemException {
-		log.debug("setting up source files");
-		List<FileObject> sourcesFileObject = new ArrayList<>();
-		log.trace("sourceFileObject : " + sourceFileObject);
-		log.trace("sourceFileObject is folder : " + sourceFileObject.isFolder());
-		if (sourceFileObject.isFolder()) {
-			sourcesFileObject.addAll(addFolderSubfolders(sourceFileObject));
-		} else {
-			sourcesFileObject.add(sourceFileObject);
-		}
-		return sourcesFileObject;
-	}
-
-	private void setupDownloadFiles(FileObject sourceFileObject, FileObject destinationFileObject, StartType startType) throws FileSystemException {
-		log.debug("setting up download files");
-		String basePath = sourceFileObject.getParent().getName().getFriendlyURI();
-		log.trace("basePath : " + basePath);
-		List<FileObject> sourcesFileObject = setupSourceFiles(sourceFileObject);
-		createDestinationPath(destinationFileObject);
-		for (FileObject sourceFileObjectItem : sourcesFileObject) {
-			log.debug("addding " + sourceFileObject);
-			addDownload(sourceFileObjectItem, resolveDestinationPathFromSource(sourceFileObjectItem, destinationFileObject, basePath), startType);
-		}
-
-	}
-
-	public void addDownload(String source, String destination) {
-		addDownload(source, destination, StartType.AUTOMATICALLY);
-	}
-
-	public void addDownload(String source, String destination, StartType startType) {
-		log.debug("Adding new download with startType");
-		log.debug(source + " -> " + destination);
-		log.debug(startType);
-		try {
-			FileObject sourceFileObject = fileSystemManager.resolveFile(source, getFileSystemOptions(source));
-			FileObject destinationFileObject = fileSystemManager.resolveFile(destination, getFileSystemOptions(source));
-			setupDownloadFiles(sourceFileObject, destinationFileObject, startType);
-		} catch (FileSystemException e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	public void addDownload(FileObject source, FileObject destination) {
-		addDownload(source, destination, StartType.AUTOMATICALLY);
-	}
-
-	public void addDownload(FileObject source, FileObject destination, StartType startType) {
-		log.debug("creating new Download");
-		Download download = new Download(source, destination);
-		log.debug("new Download created");
-		
-		if (queue.stream().filter(d -> d.equals(download)).findFirst().isPresent() || history.stream().filter(d -> d.equals(download)).findFirst().isPresent()) {
-			log.info(download.getName() + " was already downloaded and/or in queue");
-		} else {
-			addDownload(download, startType);
-		}
-	}
-
-	public void addDownload(Download download) {
-		addDownload(download, StartType.AUTOMATICALLY);
-	}
-
-	public void addDownload(Download download, StartType startType) {
-		log.debug("adding to queue" + download);
-		if (!history.stream().filter(d -> d.equals(download)).findFirst().isPresent() && !getQueue().stream().filter(d -> d.equals(download)).findFirst().isPresent()) {
-			getQueue().add(download);
-			saveData();
-			log.info("Added to queue : " + download);
-			startDownload(download, startType);
-		}
-	}
-
-	public SortedSet<Download> getQueue() {
-		return queue;
-	}
-
-	public void startDownload(Download download) {
-		start(download, StartType.AUTOMATICALLY);
-	}
-
-	public void startDownload(Download download, StartType startType) {
-		download.setDownloadManager(this);
-		if (startType.equals(StartType.AUTOMATICALLY)) {
-			download.schedule();
-			if (!isDownloading()) {
-				download.start();
-				log.debug("added " + download + " to executor");
-				executorService.submit(download);
-			}
-		} else if (startType.equals(StartType.SCHEDULE)) {
-			throw new IllegalArgumentException("StartType not yet implemented");
-		}
-
-	}
-
-	public void pause(Download download) {
-		download.pause();
-		log.trace(download);
-	}
-	
-	public boolean isDownloading() {
-		return getQueue().stream().filter(d -> d.getStatus().equals(DownloadStatus.IN_PROGRESS)).count() > 0;
-	}
-
-	public void pause() {
-		if (getQueue().isEmpty()) {
-
-		} else {
-			pause(getQueue().first());
-		}
-	}
-
-	public void pauseAll() {
-		for (Download download : getQueue()) {
-			if (download.getStatus().equals(DownloadStatus.IN_PROGRESS)) {
-				pause(download);
-			}
-		}
-	}
-
-	public void start(Download download) {
-		start(download, StartType.AUTOMATICALLY);
-	}
-
-	public void start(Download download, StartType startType) {
-		startDownload(download, startType);
-	}
-
-	public void start() {
-		if (getQueue().isEmpty()) {
-
-		} else {
-			log.trace("queue");
-			log.trace(getQueue());
-			Download nextDownload = getQueue().stream().sorted().filter(d -> d.getStatus().equals(DownloadStatus.SCHEDULED)).findFirst().orElse(null);
-			log.debug("nextDownload : " + nextDownload);
-			if (nextDownload != null) {
-				start(nextDownload);
-			}
-		}
-	}
-
-	public void startAll() {
-		for (Download download : getQueue()) {
-			startDownload(download);
-		}
-	}
-	
-	public void removeDownload(Download download) {
-		getQueue().remove(download);
-		saveData();
-	}
-
-	public TurtleGetListener getDownloadCallback() {
-		return downloadCallback;
-	}
-
-	public List<TurtleGetListener> getListener() {
-		return listener;
-	}
-
-	public void addListener(TurtleGetListener listener) {
-		this.listener.add(listener);
-	}
-
-	public void removeListener(TurtleGetListener listener) {
-		this.listener.remove(listener);
-	}
-
-	private class DownloadCallback implements TurtleGetListener {
-
-		private TurtleGet downloadManager;
-
-		public DownloadCallback(TurtleGet downloadManager) {
-			this.downloadManager = downloadManager;
-		}
-
-		@Override
-		public void initialized() {
-
-		}
-
-		@Override
-		public void started(Download download) {
-			log.info("started : " + download.getName());
-			for (TurtleGetListener downloadManagerListener : this.downloadManager.listener) {
-				downloadManagerListener.started(download);
-			}
-		}
-
-		@Override
-		public void paused(Download download) {
-			log.info("paused : " + download.getName());
-			for (TurtleGetListener downloadManagerListener : this.downloadManager.listener) {
-				downloadManagerListener.paused(download);
-			}
-		}
-
-		@Override
-		public void finished(Download download) {
-			log.info("finished : " + download.getName());
-			getQueue().remove(download);
-			history.add(download);
-			saveData();
-			log.trace(getQueue());
-			for (TurtleGetListener downloadManagerListener : this.downloadManager.listener) {
-				downloadManagerListener.finished(download);
-			}
-			start();
-		}
-
-		@Override
-		public void progress(Download download) {
-			log.info("Download " + download.getName() + " progress : " + download.getPercent());
-			for (TurtleGetListener downloadManagerListener : this.downloadManager.listener) {
-				downloadManagerListener.progress(download);
-			}
-		}
-
-		@Override
-		public void error(Download download, Exception exception) {
-			log.info("Download " + download.getName() + " error");
-			for (TurtleGetListener downloadManagerListener : this.downloadManager.listener) {
-				downloadManagerListener.error(download, exception);
-			}
-		}
-	}
-
-	/**
-	 * from apache commons 3.4
-	 * 
-	 * @param str
-	 * @param prefix
-	 * @return
-	 */
-	private boolean startsWithIgnoreCase(final CharSequence str, final CharSequence prefix) {
-		return startsWith(str, prefix, true);
-	}
-
-	private boolean startsWith(final CharSequence str, final CharSequence prefix, final boolean ignoreCase) {
-		if (str == null || prefix == null) {
-			return str == null && prefix == null;
-		}
-		if (prefix.length() > str.length()) {
-			return false;
-		}
-		return regionMatches(str, ignoreCase, 0, prefix, 0, prefix.length());
-	}
-
-	private boolean regionMatches(final CharSequence cs, final boolean ignoreCase, final int thisStart, final CharSequence substring, final int start, final int length) {
-		if (cs instanceof String && substring instanceof String) {
-			return ((String) cs).regionMatches(ignoreCase, thisStart, (String) substring, start, length);
-		}
-		int index1 = thisStart;
-		int index2 = start;
-		int tmpLen = length;
-
-		while (tmpLen-- > 0) {
-			final char c1 = cs.charAt(index1++);
-			final char c2 = substring.charAt(index2++);
-
-			if (c1 == c2) {
-				continue;
-			}
-
-			if (!ignoreCase) {
-				return false;
-			}
-
-			// The same check as in String.regionMatches():
-			if (Character.toUpperCase(c1) != Character.toUpperCase(c2) && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
-				return false;
-			}
-		}
-
-		return true;
-	}
-}
+package com.shuffle.turtleget;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemOptions;
+import org.apache.commons.vfs2.provider.ftp.FtpFileSystemConfigBuilder;
+
+public class TurtleGet {
+
+	private static final transient Log log = LogFactory.getLog(TurtleGet.class);
+
+	private TurtleGetFileSystemManager fileSystemManager;
+
+	private PooledFtpFileProvider ftpProvider;
+
+	private FileSystemOptions ftpFileSystemOptions;
+
+	private Map<String, FileSystemOptions> fileSystemOptions = new HashMap<>();
+
+	private SortedSet<Download> queue = new ConcurrentSkipListSet<>();
+
+	private DownloadHistory history = new DownloadHistory();
+
+	private Map<DownloadKey, Download> queueIndex = new ConcurrentHashMap<>();
+
+	private final AtomicIntegerArray statusCounts = new AtomicIntegerArray(DownloadStatus.values().length);
+	
+	private static final File defaultDataFile = new File(System.getProperty("user.home") + File.separator + ".turtleget" + File.separator + "data.tg");
+
+	private File dataFile;
+	
+	private TurtleGetJournal journal;
+
+	private TransferScheduler transferScheduler = new TransferScheduler(this);
+
+	private TransferSettings transferSettings = new TransferSettings();
+
+	private MirrorSettings mirrorSettings = new MirrorSettings();
+
+	private BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+
+	private BufferPool bufferPool = new BufferPool();
+
+	private MetadataCache metadataCache = new MetadataCache();
+
+	private FolderWalker folderWalker = new FolderWalker(metadataCache);
+
+	private DownloadScheduler downloadScheduler = new DownloadScheduler(this::scheduledDue, this::applyTransferWindows);
+
+	private Set<Download> windowPaused = ConcurrentHashMap.newKeySet();
+
+	private TurtleGetListener downloadCallback = new DownloadCallback(this);
+
+	private List<TurtleGetListener> listener = new CopyOnWriteArrayList<>();
+
+	private EventDispatcher eventDispatcher = new EventDispatcher(listener);
+
+	private TransferMetrics metrics = new TransferMetrics(this);
+
+	/**
+	 * Files a folder add enqueues and persists at once
+	 */
+	public static final int ADD_BATCH_SIZE = 256;
+
+	private final ExecutorService addExecutorService = Executors.newFixedThreadPool(2, r -> {
+		Thread thread = new Thread(r, "turtleget-add");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Size lookups get a thread of their own so they don't wait behind long
+	 * walks
+	 */
+	private final ExecutorService sizeExecutorService = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "turtleget-size");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Receives each file of an add with the destination it maps to
+	 */
+	private interface DownloadVisitor {
+		void visit(FileObject source, FileObject destination) throws FileSystemException;
+
+		/**
+		 * @see FolderWalker.FileVisitor#enter(FileObject)
+		 */
+		default boolean enter(FileObject folder) throws FileSystemException {
+			return true;
+		}
+	}
+
+	public enum StartType {
+		AUTOMATICALLY, MANUALLY, SCHEDULE
+	}
+	
+	public TurtleGet() {
+		this(defaultDataFile);
+	}
+
+	public TurtleGet(File dataFile) {
+		try {
+			TurtleGetFileSystemManager turtleGetFileSystemManager = new TurtleGetFileSystemManager();
+			turtleGetFileSystemManager.init();
+			fileSystemManager = turtleGetFileSystemManager;
+			ftpProvider = turtleGetFileSystemManager.getFtpProvider();
+		} catch (FileSystemException e) {
+			throw new RuntimeException(e);
+		}
+		
+		this.dataFile = Optional.ofNullable(dataFile).orElse(defaultDataFile);
+		setupFtpFileSystemOptions();
+		initFileSystemOptions();
+		loadData();
+	}
+
+	//TODO Verify if file still exists on source (kinda fixed on thread error)
+	private void loadDataQueue(TurtleGetData data) {
+		log.info("Loading saved queue");
+		for (DownloadData downloadData : data.getQueue()) {
+			try {
+				Download download = new Download(fileSystemManager.resolveFile(downloadData.getSource(), getFileSystemOptions(downloadData.getSource())),
+						fileSystemManager.resolveFile(downloadData.getDestination(), getFileSystemOptions(downloadData.getDestination())));
+				download.setAdded(downloadData.getAdded());
+				download.setSize(downloadData.getSize());
+				download.setPriority(downloadData.getPriority());
+				download.setDownloadManager(this);
+				queue.add(download);
+				queueIndex.put(download.getKey(), download);
+				if (downloadData.getScheduled() != null) {
+					download.setScheduled(downloadData.getScheduled());
+					download.setStatus(DownloadStatus.WAITING);
+					downloadScheduler.schedule(download, downloadData.getScheduled());
+				}
+			} catch (FileSystemException e) {
+				log.error("Error loading saved download queue");
+			}
+		}
+		log.info(queue);
+		log.info("Finished loading saved queue");
+	}
+
+	private void loadDataHistory(TurtleGetData data) {
+		log.info("Loading download history");
+		for (DownloadData downloadData : data.getHistory()) {
+			history.put(downloadData);
+		}
+		log.info(history);
+		log.info("Finished loading download history");
+	}
+
+	private void loadData() {
+		log.debug("dataFile : " + dataFile.getAbsolutePath());
+		journal = new TurtleGetJournal(dataFile);
+		try {
+			TurtleGetData data = journal.load();
+			loadDataHistory(data);
+			loadDataQueue(data);
+		} catch (IOException e) {
+			log.error("Error loading download manager data, creating new one", e);
+		}
+	}
+
+	private DownloadData toDownloadData(Download download) {
+		DownloadData downloadData = new DownloadData(download.getSource().getName().getURI(), download.getDestination().getName().getURI(), download.getAdded());
+		downloadData.setSize(download.getSize());
+		downloadData.setScheduled(download.getScheduled());
+		downloadData.setChecksum(download.getChecksum());
+		downloadData.setPriority(download.getPriority());
+		return downloadData;
+	}
+
+	private TurtleGetData snapshotData() {
+		TurtleGetData data = new TurtleGetData();
+		for (Download download : queue) {
+			data.getQueue().add(toDownloadData(download));
+		}
+		for (HistoryEntry entry : history) {
+			data.getHistory().add(entry.toDownloadData());
+		}
+		return data;
+	}
+
+	/**
+	 * Records a change to the queue or history, compacting the journal into a
+	 * new snapshot when it grew too much
+	 * 
+	 * @param operation
+	 * @param download
+	 */
+	private void saveData(byte operation, Download download) {
+		saveData(operation, Collections.singletonList(download));
+	}
+
+	/**
+	 * Records the same change for all the downloads with one journal write
+	 * 
+	 * @param operation
+	 * @param downloads
+	 */
+	private synchronized void saveData(byte operation, Collection<Download> downloads) {
+		try {
+			journal.append(operation, downloads.stream().map(this::toDownloadData).collect(Collectors.toList()));
+			if (journal.needsCompaction(queue.size() + history.size())) {
+				journal.compact(snapshotData());
+			}
+		} catch (IOException e) {
+			log.error("Error while saving download manager data, all data will be lost", e);
+		}
+	}
+
+	private void initFileSystemOptions() {
+		fileSystemOptions.put("ftp://", ftpFileSystemOptions);
+	}
+
+	private void setupFtpFileSystemOptions() {
+		FtpFileSystemConfigBuilder ftpFileSystemConfigBuilder = FtpFileSystemConfigBuilder.getInstance();
+		ftpFileSystemOptions = new FileSystemOptions();
+		ftpFileSystemConfigBuilder.setControlEncoding(ftpFileSystemOptions, "UTF-8");
+		ftpFileSystemConfigBuilder.setPassiveMode(ftpFileSystemOptions, true);
+		//TODO get timeout from properties
+		ftpFileSystemConfigBuilder.setSoTimeout(ftpFileSystemOptions, 10000);
+		ftpFileSystemConfigBuilder.setConnectTimeout(ftpFileSystemOptions, 10000);
+		ftpFileSystemConfigBuilder.setDataTimeout(ftpFileSystemOptions, 10000);
+		//FIX the not found file sometimes
+		ftpFileSystemConfigBuilder.setUserDirIsRoot(ftpFileSystemOptions, true);
+	}
+
+	private FileSystemOptions getFileSystemOptions(String path) {
+		for (String protocol : fileSystemOptions.keySet()) {
+			if (startsWithIgnoreCase(path, protocol)) {
+				return fileSystemOptions.get(protocol);
+			}
+		}
+		return null;
+	}
+
+	private void addFolderSubfolders(FileObject sourceFileObject, FolderWalker.FileVisitor visitor) throws FileSystemException {
+		log.debug("add folder subfolders");
+		folderWalker.walk(sourceFileObject, visitor);
+	}
+
+	private String resolveDestinationFolder(FileObject destinationFileObject) throws FileSystemException {
+		if (metadataCache.isFile(destinationFileObject)) {
+			return destinationFileObject.getParent().getName().getFriendlyURI();
+		}
+		return destinationFileObject.getName().getFriendlyURI();
+	}
+
+	private FileObject resolveDestinationPathFromSource(FileObject sourceFileObject, String destinationPath, String basePath) throws FileSystemException {
+		log.debug("resolving destination path from source");
+		return fileSystemManager.resolveFile(destinationPath + sourceFileObject.getName().getFriendlyURI().replace(basePath, ""));
+	}
+
+	private void createDestinationPath(FileObject destinationFileObject) throws FileSystemException {
+		log.debug("creating destination path");
+		log.trace("destinationFileObject : " + destinationFileObject);
+		if (!metadataCache.exists(destinationFileObject)) {
+			destinationFileObject.createFolder();
+			metadataCache.invalidate(destinationFileObject);
+		}
+	}
+
+	private void setupSourceFiles(FileObject sourceFileObject, FolderWalker.FileVisitor visitor) throws FileSystemException {
+		log.debug("setting up source files");
+		log.trace("sourceFileObject : " + sourceFileObject);
+		if (metadataCache.isFolder(sourceFileObject)) {
+			addFolderSubfolders(sourceFileObject, visitor);
+		} else {
+			visitor.visit(sourceFileObject);
+		}
+	}
+
+	/**
+	 * Hands the visitor the source file, or every file under the source folder
+	 * as the walk finds them
+	 * 
+	 * @param sourceFileObject
+	 * @param destinationFileObject
+	 * @param visitor
+	 *            receives each file with its destination
+	 * @throws FileSystemException
+	 */
+	private void setupDownloadFiles(FileObject sourceFileObject, FileObject destinationFileObject, DownloadVisitor visitor) throws FileSystemException {
+		log.debug("setting up download files");
+		String basePath = sourceFileObject.getParent().getName().getFriendlyURI();
+		log.trace("basePath : " + basePath);
+		createDestinationPath(destinationFileObject);
+		String destinationPath = resolveDestinationFolder(destinationFileObject);
+		setupSourceFiles(sourceFileObject, new FolderWalker.FileVisitor() {
+
+			@Override
+			public void visit(FileObject sourceFileObjectItem) throws FileSystemException {
+				log.debug("addding " + sourceFileObjectItem);
+				visitor.visit(sourceFileObjectItem, resolveDestinationPathFromSource(sourceFileObjectItem, destinationPath, basePath));
+			}
+
+			@Override
+			public boolean enter(FileObject folder) throws FileSystemException {
+				return visitor.enter(folder);
+			}
+		});
+	}
+
+	public void addDownload(String source, String destination) {
+		addDownload(source, destination, StartType.AUTOMATICALLY);
+	}
+
+	public void addDownload(String source, String destination, StartType startType) {
+		addDownload(source, destination, startType, null);
+	}
+
+	/**
+	 * Adds the file, or every file under the folder, to start at the date
+	 * 
+	 * @param source
+	 * @param destination
+	 * @param when
+	 */
+	public void addDownload(String source, String destination, Date when) {
+		addDownload(source, destination, StartType.SCHEDULE, when);
+	}
+
+	private void addDownload(String source, String destination, StartType startType, Date when) {
+		log.debug("Adding new download with startType");
+		log.debug(source + " -> " + destination);
+		log.debug(startType);
+		try {
+			FileObject sourceFileObject = fileSystemManager.resolveFile(source, getFileSystemOptions(source));
+			FileObject destinationFileObject = fileSystemManager.resolveFile(destination, getFileSystemOptions(destination));
+			setupDownloadFiles(sourceFileObject, destinationFileObject, (sourceItem, destinationItem) -> addDownload(sourceItem, destinationItem, startType, when));
+		} catch (FileSystemException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public DownloadBatch addDownloadAsync(String source, String destination) {
+		return addDownloadAsync(source, destination, StartType.AUTOMATICALLY);
+	}
+
+	/**
+	 * Adds the file, or every file under the folder, without blocking the
+	 * caller. The source is resolved and walked on another thread and the
+	 * files found are enqueued and persisted {@value #ADD_BATCH_SIZE} at a
+	 * time, so the first ones start while the walk goes on.
+	 * 
+	 * @param source
+	 * @param destination
+	 * @param startType
+	 * @return the batch to wait on
+	 */
+	public DownloadBatch addDownloadAsync(String source, String destination, StartType startType) {
+		DownloadBatch batch = new DownloadBatch();
+		addExecutorService.execute(() -> {
+			try {
+				FileObject sourceFileObject = fileSystemManager.resolveFile(source, getFileSystemOptions(source));
+				FileObject destinationFileObject = fileSystemManager.resolveFile(destination, getFileSystemOptions(destination));
+				List<Download> pending = new ArrayList<>();
+				setupDownloadFiles(sourceFileObject, destinationFileObject, (sourceItem, destinationItem) -> {
+					List<Download> full = null;
+					synchronized (pending) {
+						pending.add(new Download(sourceItem, destinationItem));
+						if (pending.size() >= ADD_BATCH_SIZE) {
+							full = new ArrayList<>(pending);
+							pending.clear();
+						}
+					}
+					if (full != null) {
+						batch.add(enqueue(full, startType));
+					}
+				});
+				batch.add(enqueue(pending, startType));
+				batch.enqueued();
+			} catch (FileSystemException | RuntimeException e) {
+				log.error("Could not add " + source, e);
+				batch.failed(e);
+			}
+		});
+		return batch;
+	}
+
+	public DownloadBatch mirror(String source, String destination) {
+		return mirror(source, destination, StartType.AUTOMATICALLY);
+	}
+
+	/**
+	 * Brings the destination up to date with the source folder without
+	 * blocking the caller. Only the files new since the last mirror of the
+	 * same source and destination, or changed in size or last modified time,
+	 * are enqueued, a changed file is downloaded again from scratch. The files
+	 * land where {@link #addDownload(String, String)} puts them, see
+	 * {@link #getMirrorSettings()} for deletions and skipping unchanged
+	 * folders.
+	 * 
+	 * @param source
+	 * @param destination
+	 * @param startType
+	 * @return the batch of the files enqueued
+	 */
+	public DownloadBatch mirror(String source, String destination, StartType startType) {
+		DownloadBatch batch = new DownloadBatch();
+		addExecutorService.execute(() -> {
+			try {
+				FileObject sourceFileObject = fileSystemManager.resolveFile(source, getFileSystemOptions(source));
+				FileObject destinationFileObject = fileSystemManager.resolveFile(destination, getFileSystemOptions(destination));
+				File snapshotFile = mirrorSnapshotFile(sourceFileObject, destinationFileObject);
+				MirrorSnapshot previous = MirrorSnapshot.load(snapshotFile);
+				Mirror mirror = new Mirror(sourceFileObject, previous, batch, startType);
+				metadataCache.refresh(sourceFileObject);
+				if (!metadataCache.isFolder(sourceFileObject) || mirror.changed(sourceFileObject)) {
+					setupDownloadFiles(sourceFileObject, destinationFileObject, mirror);
+				}
+				mirror.flush();
+				int removed = 0;
+				if (mirrorSettings.isDeleteRemoved()) {
+					FileObject mirrorFolder = resolveDestinationPathFromSource(sourceFileObject, resolveDestinationFolder(destinationFileObject),
+							sourceFileObject.getParent().getName().getFriendlyURI());
+					for (String path : mirror.snapshot.removedSince(previous)) {
+						FileObject removedFileObject = mirrorFolder.resolveFile(path);
+						if (!queueIndex.containsKey(DownloadKey.of(sourceFileObject.resolveFile(path), removedFileObject)) && metadataCache.exists(removedFileObject)) {
+							log.info("Deleting " + removedFileObject + ", removed from " + source);
+							discard(removedFileObject);
+							removed++;
+						}
+					}
+				}
+				mirror.snapshot.save(snapshotFile);
+				log.info("Mirrored " + source + " : " + batch.getDownloads().size() + " new or changed, " + removed + " deleted, " + mirror.snapshot);
+				batch.enqueued();
+			} catch (IOException | RuntimeException e) {
+				log.error("Could not mirror " + source, e);
+				batch.failed(e);
+			}
+		});
+		return batch;
+	}
+
+	private File mirrorSnapshotFile(FileObject source, FileObject destination) {
+		String mirror = source.getName().getURI() + " " + destination.getName().getURI();
+		return new File(dataFile.getPath() + ".mirrors", UUID.nameUUIDFromBytes(mirror.getBytes(StandardCharsets.UTF_8)) + ".snapshot");
+	}
+
+	/**
+	 * Deletes a destination file so it can be downloaded again or because its
+	 * source is gone
+	 * 
+	 * @param destination
+	 * @throws IOException
+	 */
+	private void discard(FileObject destination) throws IOException {
+		if (LocalDestination.isLocal(destination)) {
+			LocalDestination.delete(destination);
+		} else {
+			destination.delete();
+		}
+		metadataCache.invalidate(destination);
+	}
+
+	/**
+	 * One run of {@link TurtleGet#mirror(String, String, StartType)}, compares
+	 * what the walk finds with the snapshot of the last run and builds the
+	 * snapshot of this one
+	 */
+	private class Mirror implements DownloadVisitor {
+
+		private final FileObject root;
+
+		private final MirrorSnapshot previous;
+
+		private final MirrorSnapshot snapshot = new MirrorSnapshot();
+
+		private final DownloadBatch batch;
+
+		private final StartType startType;
+
+		private final boolean skipUnchangedFolders = mirrorSettings.isSkipUnchangedFolders();
+
+		private final List<Download> pending = new ArrayList<>();
+
+		private final List<Download> changed = new ArrayList<>();
+
+		public Mirror(FileObject root, MirrorSnapshot previous, DownloadBatch batch, StartType startType) {
+			this.root = root;
+			this.previous = previous;
+			this.batch = batch;
+			this.startType = startType;
+		}
+
+		private String path(FileObject fileObject) throws FileSystemException {
+			return fileObject.getName().equals(root.getName()) ? "" : root.getName().getRelativeName(fileObject.getName());
+		}
+
+		@Override
+		public void visit(FileObject source, FileObject destination) throws FileSystemException {
+			String path = path(source);
+			long size = metadataCache.getSize(source);
+			long lastModified = metadataCache.getLastModified(source);
+			snapshot.putFile(path, size, lastModified);
+			MirrorSnapshot.Entry entry = previous.getFile(path);
+			Download download = new Download(source, destination);
+			DownloadKey key = download.getKey();
+			HistoryEntry downloaded = history.get(key);
+			if (queueIndex.containsKey(key)) {
+				add(pending, download);
+			} else if (entry != null && entry.changed(size, lastModified) || downloaded != null && (downloaded.getSize() != size || !metadataCache.exists(destination))) {
+				// changed since the last mirror, or the last download doesn't
+				// match the source or is gone, like when the download of a
+				// change was removed before it finished
+				try {
+					discard(destination);
+				} catch (IOException e) {
+					throw new FileSystemException(e);
+				}
+				add(changed, download);
+			} else if (downloaded == null) {
+				// new, or never finished
+				add(pending, download);
+			}
+		}
+
+		@Override
+		public boolean enter(FileObject folder) throws FileSystemException {
+			if (!changed(folder)) {
+				return false;
+			}
+			metadataCache.refresh(folder);
+			return true;
+		}
+
+		/**
+		 * Records the folder, or takes its files from the last snapshot if it
+		 * can be skipped
+		 * 
+		 * @param folder
+		 * @return false if the folder is skipped
+		 * @throws FileSystemException
+		 */
+		private boolean changed(FileObject folder) throws FileSystemException {
+			String path = path(folder);
+			long lastModified = metadataCache.getLastModified(folder);
+			snapshot.putFolder(path, lastModified);
+			if (skipUnchangedFolders && lastModified != 0 && previous.getFolder(path) == lastModified && previous.isLeaf(path)) {
+				log.debug("Skipping unchanged " + folder);
+				snapshot.carryOver(previous, path);
+				return false;
+			}
+			return true;
+		}
+
+		private void add(List<Download> downloads, Download download) {
+			List<Download> full = null;
+			synchronized (downloads) {
+				downloads.add(download);
+				if (downloads.size() >= ADD_BATCH_SIZE) {
+					full = new ArrayList<>(downloads);
+					downloads.clear();
+				}
+			}
+			if (full != null) {
+				batch.add(enqueue(full, startType, downloads == changed));
+			}
+		}
+
+		private void flush() {
+			synchronized (pending) {
+				batch.add(enqueue(pending, startType));
+				pending.clear();
+			}
+			synchronized (changed) {
+				batch.add(enqueue(changed, startType, true));
+				changed.clear();
+			}
+		}
+	}
+
+	public void addDownload(FileObject source, FileObject destination) {
+		addDownload(source, destination, StartType.AUTOMATICALLY);
+	}
+
+	public void addDownload(FileObject source, FileObject destination, StartType startType) {
+		addDownload(source, destination, startType, null);
+	}
+
+	public void addDownload(FileObject source, FileObject destination, Date when) {
+		addDownload(source, destination, StartType.SCHEDULE, when);
+	}
+
+	private void addDownload(FileObject source, FileObject destination, StartType startType, Date when) {
+		log.debug("creating new Download");
+		Download download = new Download(source, destination);
+		download.setScheduled(when);
+		log.debug("new Download created");
+		
+		if (isKnown(download)) {
+			log.info(download.getName() + " was already downloaded and/or in queue");
+		} else {
+			addDownload(download, startType);
+		}
+	}
+
+	public void addDownload(Download download) {
+		addDownload(download, StartType.AUTOMATICALLY);
+	}
+
+	public DownloadBatch addDownloads(Collection<Download> downloads) {
+		return addDownloads(downloads, StartType.AUTOMATICALLY);
+	}
+
+	/**
+	 * Enqueues the downloads with a single journal write and starts them as
+	 * slots free up, skipping the ones already downloaded or queued
+	 * 
+	 * @param downloads
+	 * @param startType
+	 * @return the batch to wait on, already enqueued
+	 */
+	public DownloadBatch addDownloads(Collection<Download> downloads, StartType startType) {
+		DownloadBatch batch = new DownloadBatch();
+		batch.add(enqueue(downloads, startType));
+		batch.enqueued();
+		return batch;
+	}
+
+	/**
+	 * Queues and persists the new downloads at once, then starts them
+	 * 
+	 * @param downloads
+	 * @param startType
+	 * @return the new downloads plus the queued ones they duplicate
+	 */
+	private List<Download> enqueue(Collection<Download> downloads, StartType startType) {
+		return enqueue(downloads, startType, false);
+	}
+
+	/**
+	 * @param downloads
+	 * @param startType
+	 * @param again
+	 *            enqueues the ones in the history too, to download them again
+	 * @return
+	 */
+	private List<Download> enqueue(Collection<Download> downloads, StartType startType, boolean again) {
+		List<Download> batch = new ArrayList<>(downloads.size());
+		List<Download> added = new ArrayList<>(downloads.size());
+		downloads.forEach(this::setKnownSize);
+		synchronized (this) {
+			for (Download download : downloads) {
+				Download queued = queueIndex.get(download.getKey());
+				if (queued != null) {
+					batch.add(queued);
+				} else if (again || !history.contains(download.getKey())) {
+					download.setDownloadManager(this);
+					getQueue().add(download);
+					queueIndex.put(download.getKey(), download);
+					added.add(download);
+					batch.add(download);
+				}
+			}
+			if (!added.isEmpty()) {
+				saveData(TurtleGetJournal.ADD, added);
+			}
+		}
+		lookUpSizes(added);
+		log.info("Added " + added.size() + " downloads to queue");
+		if (startType.equals(StartType.AUTOMATICALLY)) {
+			// one dispatch fills the free slots instead of a submit per download
+			synchronized (this) {
+				for (Download download : added) {
+					download.schedule();
+				}
+				dispatch();
+			}
+		} else if (startType.equals(StartType.SCHEDULE)) {
+			for (Download download : added) {
+				startDownload(download, startType);
+			}
+		}
+		return batch;
+	}
+
+	public void addDownload(Download download, StartType startType) {
+		log.debug("adding to queue" + download);
+		setKnownSize(download);
+		synchronized (this) {
+			if (isKnown(download)) {
+				return;
+			}
+			download.setDownloadManager(this);
+			getQueue().add(download);
+			queueIndex.put(download.getKey(), download);
+			saveData(TurtleGetJournal.ADD, download);
+		}
+		lookUpSizes(Collections.singletonList(download));
+		log.info("Added to queue : " + download);
+		startDownload(download, startType);
+	}
+
+	/**
+	 * Sets the size of the source before the transfer, so the
+	 * {@link QueuePolicy} can rank by it. Only sizes already in the
+	 * {@link MetadataCache} are used, like those of the files found walking
+	 * a folder, the others stay unknown until the transfer instead of costing
+	 * the caller a round trip per file.
+	 * 
+	 * @param download
+	 */
+	private void setKnownSize(Download download) {
+		if (download.getSize() > 0) {
+			return;
+		}
+		long size = metadataCache.getCachedSize(download.getSource());
+		if (size > 0) {
+			download.setSize(size);
+		}
+	}
+
+	/**
+	 * Looks up the sizes {@link #setKnownSize(Download)} left unknown, in the
+	 * background and only for a {@link QueuePolicy} that ranks by them. The
+	 * picks after that rank by the sizes found.
+	 * 
+	 * @param downloads
+	 */
+	private void lookUpSizes(Collection<Download> downloads) {
+		if (!transferScheduler.getQueuePolicy().usesSize()) {
+			return;
+		}
+		List<Download> unknown = downloads.stream().filter(download -> download.getSize() <= 0).collect(Collectors.toList());
+		if (unknown.isEmpty()) {
+			return;
+		}
+		sizeExecutorService.execute(() -> {
+			List<Download> known = new ArrayList<>();
+			for (Download download : unknown) {
+				try {
+					long size = metadataCache.getSize(download.getSource());
+					if (size > 0 && download.getSize() <= 0) {
+						download.setSize(size);
+						known.add(download);
+					}
+				} catch (FileSystemException e) {
+					log.debug("Size of " + download.getSource() + " unknown until the transfer", e);
+				}
+			}
+			if (!known.isEmpty()) {
+				synchronized (this) {
+					known.removeIf(download -> queueIndex.get(download.getKey()) != download);
+					saveData(TurtleGetJournal.UPDATE, known);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Whether the download is already queued or was downloaded before
+	 * 
+	 * @param download
+	 * @return
+	 */
+	private boolean isKnown(Download download) {
+		DownloadKey key = download.getKey();
+		return queueIndex.containsKey(key) || history.contains(key);
+	}
+
+	public SortedSet<Download> getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Completed downloads, iterate or page through it instead of copying it
+	 * 
+	 * @return
+	 */
+	public DownloadHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Resolves the files of a history entry
+	 * 
+	 * @param entry
+	 * @return a completed download
+	 * @throws FileSystemException
+	 */
+	public Download resolve(HistoryEntry entry) throws FileSystemException {
+		Download download = new Download(fileSystemManager.resolveFile(entry.getSource(), getFileSystemOptions(entry.getSource())),
+				fileSystemManager.resolveFile(entry.getDestination(), getFileSystemOptions(entry.getDestination())));
+		download.setAdded(entry.getAdded());
+		download.setStatus(DownloadStatus.COMPLETE);
+		return download;
+	}
+
+	public void startDownload(Download download) {
+		start(download, StartType.AUTOMATICALLY);
+	}
+
+	public void startDownload(Download download, StartType startType) {
+		download.setDownloadManager(this);
+		if (startType.equals(StartType.AUTOMATICALLY)) {
+			synchronized (this) {
+				if (download.getStatus().equals(DownloadStatus.IN_PROGRESS) || download.getStatus().equals(DownloadStatus.COMPLETE)) {
+					return;
+				}
+				downloadScheduler.cancel(download);
+				download.schedule();
+				if (downloadScheduler.isOpen()) {
+					transferScheduler.submit(download);
+				}
+			}
+		} else if (startType.equals(StartType.SCHEDULE)) {
+			synchronized (this) {
+				if (download.getStatus().equals(DownloadStatus.IN_PROGRESS) || download.getStatus().equals(DownloadStatus.COMPLETE)) {
+					return;
+				}
+				Date when = download.getScheduled();
+				if (when != null && when.after(new Date())) {
+					download.setStatus(DownloadStatus.WAITING);
+					downloadScheduler.schedule(download, when);
+				} else {
+					download.schedule();
+					dispatch();
+				}
+			}
+		}
+
+	}
+
+	public void pause(Download download) {
+		download.pause();
+		log.trace(download);
+	}
+	
+	public boolean isDownloading() {
+		return countDownloads(DownloadStatus.IN_PROGRESS) > 0;
+	}
+
+	/**
+	 * How many downloads of this manager are in the status, kept as they
+	 * change instead of going through the queue
+	 * 
+	 * @param status
+	 * @return
+	 */
+	public int countDownloads(DownloadStatus status) {
+		return statusCounts.get(status.ordinal());
+	}
+
+	/**
+	 * Called by the downloads of this manager on every status change
+	 * 
+	 * @param from
+	 *            null when the download joins this manager
+	 * @param to
+	 *            null when it leaves
+	 */
+	void statusChanged(DownloadStatus from, DownloadStatus to) {
+		if (from != null) {
+			statusCounts.decrementAndGet(from.ordinal());
+		}
+		if (to != null) {
+			statusCounts.incrementAndGet(to.ordinal());
+		}
+	}
+
+	/**
+	 * Cache of remote file types, sizes and listings used when adding and
+	 * starting downloads
+	 * 
+	 * @return
+	 */
+	public MetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * Pool of FTP connections, tune its size, idle timeout and keepalive here
+	 * 
+	 * @return
+	 */
+	public PooledFtpFileProvider getFtpProvider() {
+		return ftpProvider;
+	}
+
+	/**
+	 * Throughput, latency and error metrics, also published through JMX
+	 * 
+	 * @return
+	 */
+	public TransferMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Lets go of the manager: stops the metrics and their MBeans, cancels the
+	 * scheduled dates, stops its threads, closes the journal and the file
+	 * systems with their pooled connections. Running downloads are not
+	 * stopped, pause them first. The queue is kept in the data file for the
+	 * next manager.
+	 */
+	public void shutdown() {
+		metrics.close();
+		downloadScheduler.shutdown();
+		transferScheduler.shutdown();
+		addExecutorService.shutdown();
+		sizeExecutorService.shutdown();
+		folderWalker.shutdown();
+		eventDispatcher.close();
+		synchronized (this) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				log.error("Error closing download manager journal", e);
+			}
+		}
+		fileSystemManager.close();
+	}
+
+	public int getFolderWalkerThreads() {
+		return folderWalker.getThreads();
+	}
+
+	/**
+	 * Sets how many folders are listed in parallel when a folder is added
+	 * 
+	 * @param threads
+	 */
+	public void setFolderWalkerThreads(int threads) {
+		folderWalker.setThreads(threads);
+	}
+
+	public int getMaxConcurrentDownloads() {
+		return transferScheduler.getMaxConcurrentDownloads();
+	}
+
+	/**
+	 * Sets how many downloads can run at the same time, raising it starts
+	 * scheduled downloads right away and lowering it lets the running ones
+	 * finish
+	 * 
+	 * @param maxConcurrentDownloads
+	 */
+	public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+		transferScheduler.setMaxConcurrentDownloads(maxConcurrentDownloads);
+		dispatch();
+	}
+
+	/**
+	 * How many downloads can run at the same time from the host
+	 * 
+	 * @param host
+	 *            as <code>scheme://host:port</code>, e.g.
+	 *            <code>ftp://example.com:21</code>
+	 * @return 0 if only the overall limit applies
+	 */
+	public int getMaxConcurrentDownloads(String host) {
+		return transferScheduler.getMaxConcurrentDownloads(host);
+	}
+
+	/**
+	 * Limits the downloads running at the same time from the host, on top of
+	 * the overall limit
+	 * 
+	 * @param host
+	 *            as <code>scheme://host:port</code>
+	 * @param maxConcurrentDownloads
+	 *            0 goes back to {@link #getMaxConcurrentDownloadsPerHost()}
+	 */
+	public void setMaxConcurrentDownloads(String host, int maxConcurrentDownloads) {
+		transferScheduler.setMaxConcurrentDownloads(host, maxConcurrentDownloads);
+		dispatch();
+	}
+
+	/**
+	 * Limit of the hosts without one of their own
+	 * 
+	 * @return 0 if only the overall limit applies
+	 */
+	public int getMaxConcurrentDownloadsPerHost() {
+		return transferScheduler.getMaxConcurrentDownloadsPerHost();
+	}
+
+	public void setMaxConcurrentDownloadsPerHost(int maxConcurrentDownloadsPerHost) {
+		transferScheduler.setMaxConcurrentDownloadsPerHost(maxConcurrentDownloadsPerHost);
+		dispatch();
+	}
+
+	public QueuePolicy getQueuePolicy() {
+		return transferScheduler.getQueuePolicy();
+	}
+
+	/**
+	 * Sets which scheduled download starts next, applies from the next free
+	 * slot on
+	 * 
+	 * @param queuePolicy
+	 *            {@link QueuePolicy#FIFO} by default
+	 */
+	public void setQueuePolicy(QueuePolicy queuePolicy) {
+		transferScheduler.setQueuePolicy(queuePolicy);
+	}
+
+	/**
+	 * Settings of {@link #mirror(String, String)}, read at the start of each
+	 * mirror
+	 * 
+	 * @return
+	 */
+	public MirrorSettings getMirrorSettings() {
+		return mirrorSettings;
+	}
+
+	/**
+	 * Settings applied to every download started from now on
+	 * 
+	 * @return
+	 */
+	public TransferSettings getTransferSettings() {
+		return transferSettings;
+	}
+
+	/**
+	 * Global and per host bandwidth caps, adjustable while downloading
+	 * 
+	 * @return
+	 */
+	public BandwidthLimiter getBandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+
+	/**
+	 * Copy buffers of all the running downloads and their memory cap
+	 * 
+	 * @return
+	 */
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public void pause() {
+		// the queue may empty between a check and first()
+		getQueue().stream().findFirst().ifPresent(this::pause);
+	}
+
+	public synchronized void pauseAll() {
+		for (Download download : getQueue()) {
+			if (download.getStatus().equals(DownloadStatus.IN_PROGRESS)) {
+				pause(download);
+			}
+		}
+	}
+
+	public void start(Download download) {
+		start(download, StartType.AUTOMATICALLY);
+	}
+
+	public void start(Download download, StartType startType) {
+		startDownload(download, startType);
+	}
+
+	public synchronized void start() {
+		if (getQueue().isEmpty()) {
+
+		} else {
+			log.trace("queue");
+			log.trace(getQueue());
+			Download nextDownload = transferScheduler.next(getQueue());
+			log.debug("nextDownload : " + nextDownload);
+			if (nextDownload != null) {
+				start(nextDownload);
+			}
+		}
+	}
+
+	/**
+	 * Schedules every download in the queue, the {@link QueuePolicy} picks
+	 * which ones take the free slots
+	 */
+	public synchronized void startAll() {
+		for (Download download : getQueue()) {
+			if (download.getStatus().equals(DownloadStatus.IN_PROGRESS) || download.getStatus().equals(DownloadStatus.COMPLETE)) {
+				continue;
+			}
+			download.setDownloadManager(this);
+			downloadScheduler.cancel(download);
+			download.schedule();
+		}
+		dispatch();
+	}
+
+	/**
+	 * Fills every free transfer slot with the next scheduled downloads
+	 */
+	synchronized void dispatch() {
+		if (!downloadScheduler.isOpen()) {
+			return;
+		}
+		while (transferScheduler.hasFreeSlot()) {
+			Download nextDownload = transferScheduler.next(getQueue());
+			log.debug("nextDownload : " + nextDownload);
+			if (nextDownload == null || !transferScheduler.submit(nextDownload)) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Opens the connection of the next download to start, if its server has
+	 * none idle
+	 */
+	private void warmUpNext() {
+		Download nextDownload;
+		synchronized (this) {
+			nextDownload = transferScheduler.next(getQueue());
+		}
+		if (nextDownload != null) {
+			ftpProvider.warmUp(nextDownload.getSource());
+		}
+	}
+
+	/**
+	 * Moves the download to the date, or starts it with the next free slot if
+	 * the date is null or past
+	 * 
+	 * @param download
+	 * @param when
+	 */
+	synchronized void schedule(Download download, Date when) {
+		download.setScheduled(when);
+		if (queueIndex.containsKey(download.getKey())) {
+			saveData(TurtleGetJournal.UPDATE, download);
+		}
+		startDownload(download, StartType.SCHEDULE);
+	}
+
+	synchronized void prioritize(Download download, int priority) {
+		download.setPriority(priority);
+		if (queueIndex.containsKey(download.getKey())) {
+			saveData(TurtleGetJournal.UPDATE, download);
+		}
+	}
+
+	synchronized void scheduledDue(Download download) {
+		if (download.getStatus().equals(DownloadStatus.WAITING)) {
+			download.schedule();
+			dispatch();
+		}
+	}
+
+	/**
+	 * Applies the bandwidth of the open transfer windows and starts or pauses
+	 * downloads as the windows open or close. Downloads paused by a window
+	 * resume when the next one opens.
+	 */
+	private void applyTransferWindows() {
+		bandwidthLimiter.setWindowLimit(downloadScheduler.getBandwidthLimit());
+		if (downloadScheduler.isOpen()) {
+			dispatch();
+		} else {
+			for (Download download : transferScheduler.getActive()) {
+				windowPaused.add(download);
+				download.pause();
+			}
+		}
+	}
+
+	public List<TransferWindow> getTransferWindows() {
+		return Collections.unmodifiableList(downloadScheduler.getWindows());
+	}
+
+	/**
+	 * Restricts downloads to the windows, with no windows downloads may run at
+	 * any time
+	 * 
+	 * @param window
+	 */
+	public void addTransferWindow(TransferWindow window) {
+		downloadScheduler.addWindow(window);
+	}
+
+	public void removeTransferWindow(TransferWindow window) {
+		downloadScheduler.removeWindow(window);
+	}
+
+	/**
+	 * Takes the download out of the queue and stops it, its completion is
+	 * cancelled
+	 * 
+	 * @param download
+	 */
+	public synchronized void removeDownload(Download download) {
+		downloadScheduler.cancel(download);
+		if (getQueue().remove(download)) {
+			queueIndex.remove(download.getKey());
+			saveData(TurtleGetJournal.REMOVE, download);
+			download.pause();
+			if (!transferScheduler.getActive().contains(download)) {
+				// a running one is let go once it gives back its slot
+				download.setDownloadManager(null);
+			}
+			download.getCompletion().cancel(false);
+		}
+	}
+
+	/**
+	 * Stops counting a download that is no longer queued
+	 * 
+	 * @param download
+	 */
+	private void detachIfRemoved(Download download) {
+		if (queueIndex.get(download.getKey()) != download) {
+			download.setDownloadManager(null);
+		}
+	}
+
+	/**
+	 * Host slots for the extra connections of a segmented download
+	 *
+	 * @param download
+	 * @param wanted
+	 * @return how many of them are free
+	 */
+	int acquireSegments(Download download, int wanted) {
+		return transferScheduler.acquireSegments(download, wanted);
+	}
+
+	void releaseSegments(Download download) {
+		if (transferScheduler.releaseSegments(download)) {
+			dispatch();
+		}
+	}
+
+	public TurtleGetListener getDownloadCallback() {
+		return downloadCallback;
+	}
+
+	/**
+	 * Delivers the events to the listeners, tune its progress rate and
+	 * overflow policy here
+	 * 
+	 * @return
+	 */
+	public EventDispatcher getEventDispatcher() {
+		return eventDispatcher;
+	}
+
+	public List<TurtleGetListener> getListener() {
+		return listener;
+	}
+
+	public void addListener(TurtleGetListener listener) {
+		this.listener.add(listener);
+	}
+
+	public void removeListener(TurtleGetListener listener) {
+		this.listener.remove(listener);
+	}
+
+	private class DownloadCallback implements TurtleGetListener {
+
+		private TurtleGet downloadManager;
+
+		public DownloadCallback(TurtleGet downloadManager) {
+			this.downloadManager = downloadManager;
+		}
+
+		@Override
+		public void initialized() {
+
+		}
+
+		@Override
+		public void started(Download download) {
+			log.info("started : " + download.getName());
+			metrics.started(download);
+			eventDispatcher.started(download);
+			warmUpNext();
+		}
+
+		@Override
+		public void paused(Download download) {
+			log.info("paused : " + download.getName());
+			transferScheduler.release(download);
+			metrics.paused(download);
+			if (windowPaused.remove(download)) {
+				download.schedule();
+			}
+			metadataCache.invalidate(download.getDestination());
+			eventDispatcher.paused(download);
+			detachIfRemoved(download);
+		}
+
+		@Override
+		public void finished(Download download) {
+			log.info("finished : " + download.getName());
+			synchronized (this.downloadManager) {
+				getQueue().remove(download);
+				queueIndex.remove(download.getKey());
+				history.put(download.getKey(), download.getAdded().getTime(), download.getSize(), download.getChecksum());
+				saveData(TurtleGetJournal.COMPLETE, download);
+				log.trace(getQueue());
+			}
+			transferScheduler.release(download);
+			metadataCache.invalidate(download.getDestination());
+			metrics.finished(download);
+			eventDispatcher.finished(download);
+			download.setDownloadManager(null);
+			dispatch();
+		}
+
+		@Override
+		public void progress(Download download) {
+			if (log.isDebugEnabled()) {
+				log.debug("Download " + download.getName() + " progress : " + download.getPercent());
+			}
+			eventDispatcher.progress(download);
+		}
+
+		@Override
+		public void error(Download download, Exception exception) {
+			log.info("Download " + download.getName() + " error");
+			transferScheduler.release(download);
+			metadataCache.invalidate(download.getDestination());
+			metrics.error(download);
+			eventDispatcher.error(download, exception);
+			detachIfRemoved(download);
+			dispatch();
+		}
+	}
+
+	/**
+	 * from apache commons 3.4
+	 * 
+	 * @param str
+	 * @param prefix
+	 * @return
+	 */
+	private boolean startsWithIgnoreCase(final CharSequence str, final CharSequence prefix) {
+		return startsWith(str, prefix, true);
+	}
+
+	private boolean startsWith(final CharSequence str, final CharSequence prefix, final boolean ignoreCase) {
+		if (str == null || prefix == null) {
+			return str == null && prefix == null;
+		}
+		if (prefix.length() > str.length()) {
+			return false;
+		}
+		return regionMatches(str, ignoreCase, 0, prefix, 0, prefix.length());
+	}
+
+	private boolean regionMatches(final CharSequence cs, final boolean ignoreCase, final int thisStart, final CharSequence substring, final int start, final int length) {
+		if (cs instanceof String && substring instanceof String) {
+			return ((String) cs).regionMatches(ignoreCase, thisStart, (String) substring, start, length);
+		}
+		int index1 = thisStart;
+		int index2 = start;
+		int tmpLen = length;
+
+		while (tmpLen-- > 0) {
+			final char c1 = cs.charAt(index1++);
+			final char c2 = substring.charAt(index2++);
+
+			if (c1 == c2) {
+				continue;
+			}
+
+			if (!ignoreCase) {
+				return false;
+			}
+
+			// The same check as in String.regionMatches():
+			if (Character.toUpperCase(c1) != Character.toUpperCase(c2) && Character.toLowerCase(c1) != Character.toLowerCase(c2)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,43 @@
+package com.shuffle.turtleget;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+import org.apache.commons.vfs2.provider.FileProvider;
+import org.apache.commons.vfs2.provider.ftp.FtpFileProvider;
+
+/**
+ * The standard VFS configuration with the plain FTP provider swapped for a
+ * {@link PooledFtpFileProvider}
+ */
+class TurtleGetFileSystemManager extends StandardFileSystemManager {
+
+	private final PooledFtpFileProvider ftpProvider = new PooledFtpFileProvider();
+
+	public TurtleGetFileSystemManager() {
+		// the default lookup is relative to the class, which is this one
+		setConfiguration(StandardFileSystemManager.class.getResource("providers.xml"));
+	}
+
+	@Override
+	public void addProvider(String[] urlSchemes, FileProvider provider) throws FileSystemException {
+		if (provider.getClass() == FtpFileProvider.class) {
+			List<String> schemes = new ArrayList<>(Arrays.asList(urlSchemes));
+			if (schemes.remove("ftp")) {
+				super.addProvider("ftp", ftpProvider);
+			}
+			if (schemes.isEmpty()) {
+				return;
+			}
+			urlSchemes = schemes.toArray(new String[schemes.size()]);
+		}
+		super.addProvider(urlSchemes, provider);
+	}
+
+	public PooledFtpFileProvider getFtpProvider() {
+		return ftpProvider;
+	}
+}
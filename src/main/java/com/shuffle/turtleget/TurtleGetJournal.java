@@ -0,0 +1,304 @@
+package com.shuffle.turtleget;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Persists the queue and history as a snapshot (the serialized
+ * {@link TurtleGetData} kept in the data file) plus a journal of the changes
+ * made after it, so every change costs one small append instead of a rewrite
+ * of the whole data file.
+ *
+ * Journal records are <code>[length][operation][payload][crc32]</code>, a
+ * record cut short by a crash fails its length or checksum and replay stops
+ * right before it. Data files written before the journal existed are read as
+ * the first snapshot.
+ */
+class TurtleGetJournal {
+
+	private static final transient Log log = LogFactory.getLog(TurtleGetJournal.class);
+
+	private static final int MAGIC = 0x54474a31;
+
+	private static final int HEADER_SIZE = 4;
+
+	private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	/**
+	 * The journal is compacted once it holds more records than this or than
+	 * the number of live entries, whatever is bigger, which keeps compaction
+	 * cost amortized to a constant per change
+	 */
+	private static final int MIN_COMPACTION_RECORDS = 1000;
+
+	public static final byte ADD = 1;
+
+	public static final byte REMOVE = 2;
+
+	public static final byte COMPLETE = 3;
+
+	public static final byte UPDATE = 4;
+
+	private final File dataFile;
+
+	private final File journalFile;
+
+	private FileOutputStream journalOutputStream;
+
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+
+	private final DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+
+	private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream(256);
+
+	private final DataOutputStream payloadOutput = new DataOutputStream(payloadBuffer);
+
+	private final CRC32 crc = new CRC32();
+
+	private int records;
+
+	public TurtleGetJournal(File dataFile) {
+		this.dataFile = dataFile;
+		this.journalFile = new File(dataFile.getPath() + ".journal");
+	}
+
+	/**
+	 * Reads the snapshot, replays the journal over it and leaves the journal
+	 * open for appending. A journal that can't be read is moved aside and
+	 * what could be replayed from it becomes the new snapshot.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized TurtleGetData load() throws IOException {
+		log.debug("journalFile : " + journalFile.getAbsolutePath());
+		if (dataFile.getParentFile() != null) {
+			dataFile.getParentFile().mkdirs();
+		}
+		TurtleGetData data = loadSnapshot();
+		try {
+			long validLength = replay(data);
+			if (validLength < HEADER_SIZE) {
+				resetJournal();
+			} else {
+				if (validLength < journalFile.length()) {
+					log.warn("Discarding incomplete journal records after byte " + validLength);
+					try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+						randomAccessFile.setLength(validLength);
+					}
+				}
+				journalOutputStream = new FileOutputStream(journalFile, true);
+			}
+		} catch (IOException e) {
+			log.error("Error loading journal " + journalFile + ", moving it aside", e);
+			moveAside();
+			// the records replayed so far only live in memory now
+			compact(data);
+		}
+		return data;
+	}
+
+	private void moveAside() {
+		File badFile = new File(journalFile.getPath() + ".bad");
+		try {
+			Files.move(journalFile.toPath(), badFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			log.warn("Error moving journal " + journalFile + " to " + badFile, e);
+		}
+	}
+
+	private TurtleGetData loadSnapshot() {
+		if (!dataFile.exists() || dataFile.length() == 0) {
+			return new TurtleGetData();
+		}
+		try (ObjectInputStream objectInputStream = new ObjectInputStream(new FileInputStream(dataFile))) {
+			return (TurtleGetData) objectInputStream.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			log.error("Error loading download manager snapshot, creating new one", e);
+			return new TurtleGetData();
+		}
+	}
+
+	/**
+	 * Applies every intact record to the data
+	 *
+	 * @param data
+	 * @return length of the journal up to the last intact record, 0 if it has
+	 *         no valid header
+	 */
+	private long replay(TurtleGetData data) throws IOException {
+		if (!journalFile.exists()) {
+			return 0;
+		}
+		long validLength = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+			if (in.readInt() != MAGIC) {
+				log.warn("Unknown journal format, ignoring " + journalFile);
+				return 0;
+			}
+			validLength = HEADER_SIZE;
+			while (true) {
+				int length = in.readInt();
+				if (length < 1 || length > MAX_RECORD_SIZE) {
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				int checksum = in.readInt();
+				crc.reset();
+				crc.update(record, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(data, record[0], DownloadData.read(new DataInputStream(new ByteArrayInputStream(record, 1, length - 1))));
+				records++;
+				validLength += 4 + length + 4;
+			}
+		} catch (EOFException e) {
+			// torn tail, everything before it is valid
+		}
+		log.debug("Replayed " + records + " journal records");
+		return validLength;
+	}
+
+	private void apply(TurtleGetData data, byte operation, DownloadData downloadData) {
+		switch (operation) {
+		case ADD:
+			data.getQueue().add(downloadData);
+			break;
+		case REMOVE:
+			data.getQueue().remove(downloadData);
+			break;
+		case COMPLETE:
+			data.getQueue().remove(downloadData);
+			// the same download completed again replaces the earlier record,
+			// one added again comes later and replaces it on load
+			data.getHistory().remove(downloadData);
+			data.getHistory().add(downloadData);
+			break;
+		case UPDATE:
+			if (data.getQueue().remove(downloadData)) {
+				data.getQueue().add(downloadData);
+			}
+			break;
+		default:
+			log.warn("Skipping unknown journal operation " + operation);
+		}
+	}
+
+	/**
+	 * Appends one change to the journal
+	 *
+	 * @param operation
+	 *            {@link #ADD}, {@link #REMOVE}, {@link #COMPLETE} or
+	 *            {@link #UPDATE}
+	 * @param downloadData
+	 * @throws IOException
+	 */
+	public synchronized void append(byte operation, DownloadData downloadData) throws IOException {
+		append(operation, Collections.singletonList(downloadData));
+	}
+
+	/**
+	 * Appends the same change for every download with a single write, a crash
+	 * keeps the records before the torn one
+	 *
+	 * @param operation
+	 * @param downloadData
+	 * @throws IOException
+	 */
+	public synchronized void append(byte operation, Collection<DownloadData> downloadData) throws IOException {
+		if (journalOutputStream == null) {
+			// closed, or the last load or compaction failed
+			reopen();
+		}
+		recordBuffer.reset();
+		for (DownloadData data : downloadData) {
+			writeRecord(operation, data);
+		}
+		// a single write so a crash leaves at most one torn record at the end
+		recordBuffer.writeTo(journalOutputStream);
+		records += downloadData.size();
+	}
+
+	private void writeRecord(byte operation, DownloadData downloadData) throws IOException {
+		payloadBuffer.reset();
+		payloadOutput.writeByte(operation);
+		downloadData.write(payloadOutput);
+		byte[] payload = payloadBuffer.toByteArray();
+		crc.reset();
+		crc.update(payload, 0, payload.length);
+		recordOutput.writeInt(payload.length);
+		recordOutput.write(payload);
+		recordOutput.writeInt((int) crc.getValue());
+	}
+
+	public synchronized boolean needsCompaction(int liveEntries) {
+		return records > Math.max(MIN_COMPACTION_RECORDS, liveEntries);
+	}
+
+	/**
+	 * Replaces the snapshot with the given data and empties the journal. The
+	 * new snapshot is written aside and moved over the old one, a crash at
+	 * any point leaves either the old snapshot with its journal or the new
+	 * one, replaying old records over the new snapshot is harmless.
+	 *
+	 * @param data
+	 * @throws IOException
+	 */
+	public synchronized void compact(TurtleGetData data) throws IOException {
+		log.debug("Compacting journal with " + records + " records");
+		File snapshotFile = new File(dataFile.getPath() + ".tmp");
+		try (FileOutputStream fileOutputStream = new FileOutputStream(snapshotFile)) {
+			ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
+			objectOutputStream.writeObject(data);
+			objectOutputStream.flush();
+			fileOutputStream.getFD().sync();
+		}
+		Files.move(snapshotFile.toPath(), dataFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		resetJournal();
+	}
+
+	private void reopen() throws IOException {
+		if (journalFile.length() < HEADER_SIZE) {
+			resetJournal();
+		} else {
+			journalOutputStream = new FileOutputStream(journalFile, true);
+		}
+	}
+
+	private void resetJournal() throws IOException {
+		close();
+		journalOutputStream = new FileOutputStream(journalFile);
+		DataOutputStream header = new DataOutputStream(journalOutputStream);
+		header.writeInt(MAGIC);
+		header.flush();
+		records = 0;
+	}
+
+	public synchronized void close() throws IOException {
+		if (journalOutputStream != null) {
+			journalOutputStream.close();
+			journalOutputStream = null;
+		}
+	}
+}
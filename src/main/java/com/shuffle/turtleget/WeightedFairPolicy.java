@@ -0,0 +1,70 @@
+package com.shuffle.turtleget;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Start time fair queuing over the priority levels. Every level has a virtual
+ * clock that advances by the bytes it starts divided by its weight, the level
+ * with the earliest clock goes next. Levels that were idle catch up to the
+ * clock of the last pick instead of spending credit they saved while idle.
+ */
+class WeightedFairPolicy implements QueuePolicy {
+
+	/**
+	 * What starting a download costs at least, so files of unknown or tiny
+	 * size still take a turn
+	 */
+	private static final long MIN_COST = 64 * 1024;
+
+	private final Map<Integer, Integer> weights;
+
+	private final Map<Integer, Double> clocks = new HashMap<>();
+
+	private double virtualTime;
+
+	/**
+	 * @param weights
+	 *            null weighs each level by the level plus one
+	 */
+	WeightedFairPolicy(Map<Integer, Integer> weights) {
+		this.weights = weights;
+	}
+
+	private int weight(int priority) {
+		if (weights == null) {
+			return Math.max(1, priority + 1);
+		}
+		return weights.getOrDefault(priority, 1);
+	}
+
+	private synchronized double clock(int priority) {
+		return Math.max(clocks.getOrDefault(priority, 0.0), virtualTime);
+	}
+
+	@Override
+	public Comparator<Download> order(long now) {
+		return Comparator.comparingDouble((Download download) -> clock(download.getPriority())).thenComparing(Comparator.naturalOrder());
+	}
+
+	@Override
+	public synchronized void started(Download download) {
+		int priority = download.getPriority();
+		double start = clock(priority);
+		long remaining = QueuePolicy.remaining(download);
+		long cost = remaining == Long.MAX_VALUE ? MIN_COST : Math.max(MIN_COST, remaining);
+		virtualTime = start;
+		clocks.put(priority, start + cost / (double) weight(priority));
+	}
+
+	@Override
+	public boolean usesSize() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "WEIGHTED_FAIR [weights=" + (weights == null ? "level + 1" : weights) + "]";
+	}
+}
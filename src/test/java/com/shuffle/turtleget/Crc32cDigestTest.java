@@ -0,0 +1,90 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.junit.Test;
+
+public class Crc32cDigestTest {
+
+	private static int value(byte[] digest) {
+		return (digest[0] & 0xff) << 24 | (digest[1] & 0xff) << 16 | (digest[2] & 0xff) << 8 | digest[3] & 0xff;
+	}
+
+	private static int crc32c(byte[] input) {
+		Crc32cDigest digest = new Crc32cDigest();
+		digest.update(input);
+		return value(digest.digest());
+	}
+
+	/**
+	 * java.util.zip.CRC32C, null before Java 9
+	 *
+	 * @return
+	 */
+	private static Checksum reference() {
+		try {
+			return (Checksum) Class.forName("java.util.zip.CRC32C").newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	@Test
+	public void matchesKnownVectors() {
+		assertEquals(0x00000000, crc32c(new byte[0]));
+		assertEquals(0xe3069283, crc32c("123456789".getBytes(StandardCharsets.US_ASCII)));
+		// RFC 3720 B.4
+		byte[] input = new byte[32];
+		assertEquals(0x8a9136aa, crc32c(input));
+		for (int i = 0; i < 32; i++) {
+			input[i] = (byte) 0xff;
+		}
+		assertEquals(0x62a8ab43, crc32c(input));
+		for (int i = 0; i < 32; i++) {
+			input[i] = (byte) i;
+		}
+		assertEquals(0x46dd794e, crc32c(input));
+		for (int i = 0; i < 32; i++) {
+			input[i] = (byte) (31 - i);
+		}
+		assertEquals(0x113fdb5c, crc32c(input));
+	}
+
+	@Test
+	public void matchesJavaUtilZip() {
+		assumeNotNull(reference());
+		Random random = new Random(1);
+		byte[] input = new byte[4096];
+		random.nextBytes(input);
+		for (int offset = 0; offset < 9; offset++) {
+			for (int length = 0; length + offset <= input.length; length = length * 2 + 1) {
+				Checksum reference = reference();
+				reference.update(input, offset, length);
+				Crc32cDigest digest = new Crc32cDigest();
+				digest.update(input, offset, length);
+				assertEquals("offset " + offset + " length " + length, (int) reference.getValue(), value(digest.digest()));
+			}
+		}
+	}
+
+	@Test
+	public void splitUpdatesMatchWholeInput() {
+		Random random = new Random(2);
+		byte[] input = new byte[1000];
+		random.nextBytes(input);
+		Crc32cDigest digest = new Crc32cDigest();
+		digest.update(input, 0, 3);
+		digest.update(input[3]);
+		digest.update(input, 4, 13);
+		digest.update(input, 17, input.length - 17);
+		assertEquals(crc32c(input), value(digest.digest()));
+		// digest resets
+		digest.update(input);
+		assertEquals(crc32c(input), value(digest.digest()));
+	}
+}
@@ -0,0 +1,111 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DownloadHistoryTest {
+
+	private static DownloadKey key(int i) {
+		return new DownloadKey("ftp://host/pub/f" + i, "file:///tmp/dst/f" + i);
+	}
+
+	private static List<String> names(Iterable<HistoryEntry> entries) {
+		List<String> names = new ArrayList<>();
+		for (HistoryEntry entry : entries) {
+			names.add(entry.getName());
+		}
+		return names;
+	}
+
+	private static DownloadHistory history(int size) {
+		DownloadHistory history = new DownloadHistory();
+		for (int i = 0; i < size; i++) {
+			assertTrue(history.add(key(i), i, i * 10, null));
+		}
+		return history;
+	}
+
+	@Test
+	public void addsAndFindsEntries() {
+		DownloadHistory history = history(1000);
+		assertEquals(1000, history.size());
+		for (int i = 0; i < 1000; i++) {
+			HistoryEntry entry = history.get(key(i));
+			assertEquals("ftp://host/pub/f" + i, entry.getSource());
+			assertEquals("file:///tmp/dst/f" + i, entry.getDestination());
+			assertEquals(i * 10, entry.getSize());
+			assertEquals(i, entry.getAdded().getTime());
+		}
+		assertFalse(history.contains(key(1000)));
+		assertNull(history.get(new DownloadKey("ftp://host/pub/f1", "file:///tmp/other/f1")));
+	}
+
+	@Test
+	public void keepsFirstOnAdd() {
+		DownloadHistory history = history(3);
+		assertFalse(history.add(key(1), 100, 100, "CRC32C:00000000"));
+		assertEquals(3, history.size());
+		assertEquals(10, history.get(key(1)).getSize());
+	}
+
+	@Test
+	public void putReplacesAndMovesToEnd() {
+		DownloadHistory history = history(4);
+		history.put(key(1), 100, 11, "CRC32C:00000000");
+		assertEquals(4, history.size());
+		assertEquals(11, history.get(key(1)).getSize());
+		assertEquals("CRC32C:00000000", history.get(key(1)).getChecksum());
+		assertEquals(Arrays.asList("f0", "f2", "f3", "f1"), names(history));
+
+		history.put(key(4), 4, 40, null);
+		assertEquals(5, history.size());
+		assertEquals(Arrays.asList("f0", "f2", "f3", "f1", "f4"), names(history));
+	}
+
+	@Test
+	public void iteratorSurvivesReplacement() {
+		DownloadHistory history = history(100);
+		List<String> seen = new ArrayList<>();
+		Iterator<HistoryEntry> iterator = history.iterator();
+		for (int i = 0; iterator.hasNext(); i++) {
+			seen.add(iterator.next().getName());
+			if (i < 100) {
+				// replace one not seen yet, it shows up again at the end
+				history.put(key(99 - i / 2), 0, 0, null);
+			}
+		}
+		assertEquals(100, history.size());
+		for (int i = 0; i < 100; i++) {
+			assertTrue("f" + i, seen.contains("f" + i));
+		}
+		assertEquals(100, names(history).size());
+	}
+
+	@Test
+	public void pagesSkipReplacedEntries() {
+		DownloadHistory history = history(10);
+		assertEquals(Arrays.asList("f3", "f4", "f5"), names(history.page(3, 3)));
+		assertEquals(Arrays.asList("f8", "f9"), names(history.page(8, 5)));
+		assertTrue(history.page(10, 5).isEmpty());
+
+		history.put(key(0), 0, 0, null);
+		history.put(key(4), 0, 0, null);
+		assertEquals(Arrays.asList("f3", "f5", "f6"), names(history.page(2, 3)));
+		assertEquals(Arrays.asList("f9", "f0", "f4"), names(history.page(7, 5)));
+		assertTrue(history.page(2, 0).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeOffset() {
+		history(1).page(-1, 1);
+	}
+}
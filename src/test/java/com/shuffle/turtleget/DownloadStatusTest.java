@@ -0,0 +1,27 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DownloadStatusTest {
+
+	@Test
+	public void allowedChanges() {
+		String[] allowed = {
+				// STOPPED IN_PROGRESS COMPLETE SCHEDULED WAITING
+				"STOPPED     + + - + +",
+				"IN_PROGRESS + - + - -",
+				"COMPLETE    - - - - -",
+				"SCHEDULED   + + - + +",
+				"WAITING     + + - + +" };
+		DownloadStatus[] statuses = DownloadStatus.values();
+		for (int i = 0; i < statuses.length; i++) {
+			String[] row = allowed[i].split("\\s+");
+			assertEquals(statuses[i].name(), row[0]);
+			for (int j = 0; j < statuses.length; j++) {
+				assertEquals(statuses[i] + " to " + statuses[j], row[j + 1].equals("+"), statuses[i].canChangeTo(statuses[j]));
+			}
+		}
+	}
+}
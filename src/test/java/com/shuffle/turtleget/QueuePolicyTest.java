@@ -0,0 +1,146 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.VFS;
+import org.junit.Test;
+
+public class QueuePolicyTest {
+
+	private static final long NOW = 1000000;
+
+	/**
+	 * One download per size, added a millisecond apart in order
+	 *
+	 * @param sizes
+	 * @param priorities
+	 * @return
+	 * @throws FileSystemException
+	 */
+	private static List<Download> downloads(long[] sizes, int[] priorities) throws FileSystemException {
+		FileSystemManager manager = VFS.getManager();
+		List<Download> downloads = new ArrayList<>();
+		for (int i = 0; i < sizes.length; i++) {
+			Download download = new Download(manager.resolveFile("ram:///src/f" + i), manager.resolveFile("ram:///dst/f" + i));
+			download.setAdded(new Date(i));
+			download.setSize(sizes[i]);
+			download.setPriority(priorities[i]);
+			downloads.add(download);
+		}
+		return downloads;
+	}
+
+	private static List<String> sorted(QueuePolicy policy, List<Download> downloads) {
+		List<Download> sorted = new ArrayList<>(downloads);
+		Collections.shuffle(sorted);
+		sorted.sort(policy.order(NOW));
+		return names(sorted);
+	}
+
+	/**
+	 * Starts the downloads one at a time in the order the policy picks them
+	 *
+	 * @param policy
+	 * @param downloads
+	 * @return
+	 */
+	private static List<String> picks(QueuePolicy policy, List<Download> downloads) {
+		List<Download> waiting = new ArrayList<>(downloads);
+		List<Download> started = new ArrayList<>();
+		while (!waiting.isEmpty()) {
+			Download next = Collections.min(waiting, policy.order(NOW));
+			policy.started(next);
+			waiting.remove(next);
+			started.add(next);
+		}
+		return names(started);
+	}
+
+	private static List<String> names(List<Download> downloads) {
+		List<String> names = new ArrayList<>();
+		for (Download download : downloads) {
+			names.add(download.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void fifoKeepsAddedOrder() throws FileSystemException {
+		List<Download> downloads = downloads(new long[] { 900, 100, 500 }, new int[] { 0, 5, 1 });
+		assertEquals(Arrays.asList("f0", "f1", "f2"), sorted(QueuePolicy.FIFO, downloads));
+		assertFalse(QueuePolicy.FIFO.usesSize());
+	}
+
+	@Test
+	public void shortestFirstPutsUnknownSizesLast() throws FileSystemException {
+		List<Download> downloads = downloads(new long[] { 900000, 100, 500000, 10, -1, 300000, 0 }, new int[7]);
+		assertEquals(Arrays.asList("f3", "f1", "f5", "f2", "f0", "f4", "f6"), sorted(QueuePolicy.SHORTEST_FIRST, downloads));
+		assertTrue(QueuePolicy.SHORTEST_FIRST.usesSize());
+	}
+
+	@Test
+	public void priorityBreaksTiesByAddedOrder() throws FileSystemException {
+		List<Download> downloads = downloads(new long[6], new int[] { 0, 1, 5, 2, 0, 3 });
+		assertEquals(Arrays.asList("f2", "f5", "f3", "f1", "f0", "f4"), sorted(QueuePolicy.priority(0), downloads));
+	}
+
+	@Test
+	public void priorityAgesWaitingDownloads() throws FileSystemException {
+		List<Download> downloads = downloads(new long[2], new int[] { 0, 5 });
+		downloads.get(1).setAdded(new Date(NOW - 1000));
+		assertEquals(Arrays.asList("f1", "f0"), sorted(QueuePolicy.priority(0), downloads));
+		// f0 waited NOW ms, ten levels at one level per NOW / 10 ms
+		assertEquals(Arrays.asList("f0", "f1"), sorted(QueuePolicy.priority(NOW / 10), downloads));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void priorityRejectsNegativeAging() {
+		QueuePolicy.priority(-1);
+	}
+
+	@Test
+	public void weightedFairSharesByWeight() throws FileSystemException {
+		long[] sizes = new long[8];
+		Arrays.fill(sizes, 100000);
+		List<Download> downloads = downloads(sizes, new int[] { 0, 0, 0, 0, 2, 2, 2, 2 });
+		// level 2 weighs 3, it starts three downloads for every one of level 0
+		assertEquals(Arrays.asList("f0", "f4", "f5", "f6", "f1", "f7", "f2", "f3"), picks(QueuePolicy.weightedFair(), downloads));
+	}
+
+	@Test
+	public void weightedFairAlternatesEqualWeights() throws FileSystemException {
+		long[] sizes = new long[6];
+		Arrays.fill(sizes, 100000);
+		List<Download> downloads = downloads(sizes, new int[] { 0, 0, 0, 1, 1, 1 });
+		Map<Integer, Integer> weights = new HashMap<>();
+		weights.put(1, 1);
+		assertEquals(Arrays.asList("f0", "f3", "f1", "f4", "f2", "f5"), picks(QueuePolicy.weightedFair(weights), downloads));
+	}
+
+	@Test
+	public void weightedFairChargesBytes() throws FileSystemException {
+		List<Download> downloads = downloads(new long[] { 1000000, 100000, 100000, 100000, 100000 }, new int[] { 0, 0, 1, 1, 1 });
+		Map<Integer, Integer> weights = new HashMap<>();
+		// a big download costs its level the turns of the small ones
+		assertEquals(Arrays.asList("f0", "f2", "f3", "f4", "f1"), picks(QueuePolicy.weightedFair(weights), downloads));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void weightedFairRejectsZeroWeight() {
+		Map<Integer, Integer> weights = new HashMap<>();
+		weights.put(0, 0);
+		QueuePolicy.weightedFair(weights);
+	}
+}
@@ -0,0 +1,56 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void unlimitedNeverWaits() {
+		TokenBucket bucket = new TokenBucket(0);
+		assertFalse(bucket.isLimited());
+		assertEquals(0, bucket.consume(Long.MAX_VALUE / 2));
+		assertEquals(12345, bucket.chunk(12345));
+	}
+
+	@Test
+	public void waitsForDebt() {
+		TokenBucket bucket = new TokenBucket(1000);
+		assertTrue(bucket.isLimited());
+		long wait = bucket.consume(1000);
+		assertTrue(String.valueOf(wait), wait > SECOND * 8 / 10 && wait <= SECOND);
+		// the debt adds up
+		wait = bucket.consume(500);
+		assertTrue(String.valueOf(wait), wait > SECOND * 13 / 10 && wait <= SECOND * 3 / 2);
+	}
+
+	@Test
+	public void changingRateForgivesDebt() {
+		TokenBucket bucket = new TokenBucket(1000);
+		bucket.consume(100000);
+		bucket.setRate(1000000);
+		long wait = bucket.consume(1000);
+		assertTrue(String.valueOf(wait), wait <= SECOND / 1000);
+		bucket.setRate(0);
+		assertEquals(0, bucket.consume(100000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNegativeRate() {
+		new TokenBucket(-1);
+	}
+
+	@Test
+	public void chunkFollowsRate() {
+		assertEquals(50000, new TokenBucket(1000000).chunk(65536));
+		assertEquals(1024, new TokenBucket(1000000).chunk(1024));
+		assertEquals(4096, new TokenBucket(1000).chunk(65536));
+	}
+}
@@ -0,0 +1,61 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+public class TransferWindowTest {
+
+	/**
+	 * 2018-01-01 was a Monday
+	 *
+	 * @param day
+	 * @param hour
+	 * @param minute
+	 * @return
+	 */
+	private static LocalDateTime at(int day, int hour, int minute) {
+		return LocalDateTime.of(2018, 1, day, hour, minute);
+	}
+
+	@Test
+	public void opensDuringTheDay() {
+		TransferWindow window = new TransferWindow(EnumSet.of(DayOfWeek.MONDAY), LocalTime.of(9, 0), LocalTime.of(17, 0), 0);
+		assertFalse(window.isOpen(at(1, 8, 59)));
+		assertTrue(window.isOpen(at(1, 9, 0)));
+		assertTrue(window.isOpen(at(1, 16, 59)));
+		assertFalse(window.isOpen(at(1, 17, 0)));
+		assertFalse(window.isOpen(at(2, 10, 0)));
+	}
+
+	@Test
+	public void wrapsPastMidnight() {
+		TransferWindow window = new TransferWindow(EnumSet.of(DayOfWeek.MONDAY), LocalTime.of(22, 0), LocalTime.of(6, 0), 0);
+		assertFalse(window.isOpen(at(1, 5, 0)));
+		assertTrue(window.isOpen(at(1, 23, 0)));
+		// still Monday's window
+		assertTrue(window.isOpen(at(2, 5, 59)));
+		assertFalse(window.isOpen(at(2, 6, 0)));
+		assertFalse(window.isOpen(at(2, 23, 0)));
+	}
+
+	@Test
+	public void nextChangeIsNextStartOrEnd() {
+		TransferWindow window = new TransferWindow(LocalTime.of(22, 0), LocalTime.of(6, 0));
+		assertEquals(at(1, 22, 0), window.nextChange(at(1, 12, 0)));
+		assertEquals(at(2, 6, 0), window.nextChange(at(1, 22, 0)));
+		assertEquals(at(1, 6, 0), window.nextChange(at(1, 0, 0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNoDays() {
+		new TransferWindow(EnumSet.noneOf(DayOfWeek.class), LocalTime.of(9, 0), LocalTime.of(17, 0), 0);
+	}
+}
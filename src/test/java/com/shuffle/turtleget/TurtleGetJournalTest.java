@@ -0,0 +1,218 @@
+package com.shuffle.turtleget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TurtleGetJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dataFile;
+
+	private File journalFile;
+
+	@Before
+	public void setUp() {
+		dataFile = new File(folder.getRoot(), "data/data.tg");
+		journalFile = new File(dataFile.getPath() + ".journal");
+	}
+
+	private static DownloadData data(String name, long added) {
+		return new DownloadData("file:///src/" + name, "file:///dst/" + name, new Date(added));
+	}
+
+	private static List<String> sources(Collection<DownloadData> downloadData) {
+		List<String> sources = new ArrayList<>();
+		for (DownloadData data : downloadData) {
+			sources.add(data.getSource());
+		}
+		return sources;
+	}
+
+	private TurtleGetData reload() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		try {
+			return journal.load();
+		} finally {
+			journal.close();
+		}
+	}
+
+	@Test
+	public void replaysAppendedRecords() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		journal.append(TurtleGetJournal.ADD, Arrays.asList(data("a", 1), data("b", 2), data("c", 3)));
+		journal.append(TurtleGetJournal.REMOVE, data("b", 2));
+		journal.append(TurtleGetJournal.COMPLETE, data("a", 1));
+		journal.close();
+
+		TurtleGetData data = reload();
+		assertEquals(Arrays.asList("file:///src/c"), sources(data.getQueue()));
+		assertEquals(Arrays.asList("file:///src/a"), sources(data.getHistory()));
+	}
+
+	@Test
+	public void updateReplacesQueuedRecord() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		journal.append(TurtleGetJournal.ADD, data("a", 1));
+		DownloadData update = data("a", 1);
+		update.setSize(42);
+		update.setPriority(3);
+		journal.append(TurtleGetJournal.UPDATE, update);
+		// an update of a download no longer queued doesn't bring it back
+		journal.append(TurtleGetJournal.UPDATE, data("b", 2));
+		journal.close();
+
+		TurtleGetData data = reload();
+		assertEquals(1, data.getQueue().size());
+		assertEquals(42, data.getQueue().first().getSize());
+		assertEquals(3, data.getQueue().first().getPriority());
+	}
+
+	@Test
+	public void completingAgainReplacesHistoryRecord() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		DownloadData first = data("a", 1);
+		first.setSize(10);
+		journal.append(TurtleGetJournal.COMPLETE, first);
+		DownloadData second = data("a", 1);
+		second.setSize(20);
+		second.setChecksum("CRC32C:00000000");
+		journal.append(TurtleGetJournal.COMPLETE, second);
+		journal.close();
+
+		TurtleGetData data = reload();
+		assertEquals(1, data.getHistory().size());
+		assertEquals(20, data.getHistory().first().getSize());
+		assertEquals("CRC32C:00000000", data.getHistory().first().getChecksum());
+	}
+
+	@Test
+	public void discardsTornTail() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		journal.append(TurtleGetJournal.ADD, Arrays.asList(data("a", 1), data("b", 2)));
+		journal.close();
+		long length = journalFile.length();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+			randomAccessFile.setLength(length - 3);
+		}
+
+		journal = new TurtleGetJournal(dataFile);
+		TurtleGetData data = journal.load();
+		assertEquals(Arrays.asList("file:///src/a"), sources(data.getQueue()));
+		// records appended after the torn one must replay too
+		journal.append(TurtleGetJournal.ADD, data("c", 3));
+		journal.close();
+
+		assertEquals(Arrays.asList("file:///src/a", "file:///src/c"), sources(reload().getQueue()));
+	}
+
+	@Test
+	public void stopsAtCorruptRecord() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		journal.append(TurtleGetJournal.ADD, data("a", 1));
+		long length = journalFile.length();
+		journal.append(TurtleGetJournal.ADD, data("b", 2));
+		journal.close();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+			randomAccessFile.seek(length + 10);
+			int b = randomAccessFile.read();
+			randomAccessFile.seek(length + 10);
+			randomAccessFile.write(b ^ 0xff);
+		}
+
+		assertEquals(Arrays.asList("file:///src/a"), sources(reload().getQueue()));
+		assertEquals(length, journalFile.length());
+	}
+
+	@Test
+	public void compactionEmptiesJournal() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		long empty = journalFile.length();
+		journal.append(TurtleGetJournal.ADD, Arrays.asList(data("a", 1), data("b", 2)));
+		journal.append(TurtleGetJournal.COMPLETE, data("a", 1));
+		journal.close();
+
+		journal = new TurtleGetJournal(dataFile);
+		TurtleGetData data = journal.load();
+		journal.compact(data);
+		assertEquals(empty, journalFile.length());
+		journal.append(TurtleGetJournal.ADD, data("c", 3));
+		journal.close();
+
+		data = reload();
+		assertEquals(Arrays.asList("file:///src/b", "file:///src/c"), sources(data.getQueue()));
+		assertEquals(Arrays.asList("file:///src/a"), sources(data.getHistory()));
+	}
+
+	@Test
+	public void needsCompactionOnceRecordsOutgrowLiveEntries() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		journal.load();
+		List<DownloadData> downloadData = new ArrayList<>();
+		for (int i = 0; i < 1500; i++) {
+			downloadData.add(data("f" + i, i));
+		}
+		journal.append(TurtleGetJournal.ADD, downloadData.subList(0, 1000));
+		assertFalse(journal.needsCompaction(10));
+		journal.append(TurtleGetJournal.ADD, downloadData.subList(1000, 1500));
+		assertTrue(journal.needsCompaction(10));
+		assertFalse(journal.needsCompaction(1500));
+		journal.compact(new TurtleGetData());
+		assertFalse(journal.needsCompaction(0));
+		journal.close();
+	}
+
+	@Test
+	public void unreadableJournalIsMovedAside() throws IOException {
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		TurtleGetData snapshot = journal.load();
+		snapshot.getQueue().add(data("a", 1));
+		journal.compact(snapshot);
+		journal.close();
+		assertTrue(journalFile.delete());
+		assertTrue(journalFile.mkdir());
+
+		TurtleGetData data = reload();
+		assertEquals(Arrays.asList("file:///src/a"), sources(data.getQueue()));
+		assertTrue(new File(journalFile.getPath() + ".bad").exists());
+		assertTrue(journalFile.isFile());
+	}
+
+	@Test
+	public void ignoresJournalOfUnknownFormat() throws IOException {
+		dataFile.getParentFile().mkdirs();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+			randomAccessFile.writeInt(0xcafebabe);
+		}
+
+		TurtleGetJournal journal = new TurtleGetJournal(dataFile);
+		assertTrue(journal.load().getQueue().isEmpty());
+		journal.append(TurtleGetJournal.ADD, data("a", 1));
+		journal.close();
+
+		assertEquals(Arrays.asList("file:///src/a"), sources(reload().getQueue()));
+	}
+}
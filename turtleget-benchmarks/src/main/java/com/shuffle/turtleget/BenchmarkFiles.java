@@ -0,0 +1,100 @@
+package com.shuffle.turtleget;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.apache.commons.vfs2.impl.StandardFileSystemManager;
+
+/**
+ * Offline file systems for the benchmarks, <code>ram</code> keeps everything
+ * in memory and <code>file</code> uses a temporary folder
+ */
+final class BenchmarkFiles {
+
+	private BenchmarkFiles() {
+
+	}
+
+	static FileSystemManager manager() throws FileSystemException {
+		StandardFileSystemManager manager = new StandardFileSystemManager();
+		manager.init();
+		return manager;
+	}
+
+	/**
+	 * A fresh empty folder on the scheme
+	 *
+	 * @param manager
+	 * @param scheme
+	 *            ram or file
+	 * @return
+	 * @throws IOException
+	 */
+	static FileObject folder(FileSystemManager manager, String scheme) throws IOException {
+		FileObject folder;
+		if ("ram".equals(scheme)) {
+			folder = manager.resolveFile("ram:///bench" + System.nanoTime());
+		} else {
+			File temp = Files.createTempDirectory("turtleget-bench").toFile();
+			temp.deleteOnExit();
+			folder = manager.resolveFile(temp.toURI().toString());
+		}
+		folder.createFolder();
+		return folder;
+	}
+
+	static FileObject randomFile(FileObject file, long size) throws IOException {
+		Random random = new Random(size);
+		byte[] buffer = new byte[64 * 1024];
+		try (OutputStream out = file.getContent().getOutputStream()) {
+			for (long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Builds a tree of <code>width</code> folders per level, <code>depth</code>
+	 * levels deep, with <code>files</code> small files in every folder
+	 *
+	 * @param folder
+	 * @param depth
+	 * @param width
+	 * @param files
+	 * @return how many files were created
+	 * @throws IOException
+	 */
+	static int tree(FileObject folder, int depth, int width, int files) throws IOException {
+		int created = 0;
+		for (int i = 0; i < files; i++) {
+			randomFile(folder.resolveFile("file" + i + ".bin"), 128);
+			created++;
+		}
+		if (depth > 0) {
+			for (int i = 0; i < width; i++) {
+				FileObject child = folder.resolveFile("folder" + i);
+				child.createFolder();
+				created += tree(child, depth - 1, width, files);
+			}
+		}
+		return created;
+	}
+
+	static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,69 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One whole single stream transfer through {@link Download#call()}, which is
+ * the copy loop plus opening and closing both files, at fixed buffer sizes
+ * (the adaptive buffer is capped at the starting size)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CopyBenchmark {
+
+	@Param({ "ram", "file" })
+	public String scheme;
+
+	@Param({ "4096", "65536", "1048576" })
+	public int bufferSize;
+
+	@Param({ "16777216" })
+	public long size;
+
+	private FileObject source;
+
+	private FileObject destination;
+
+	private Download download;
+
+	@Setup(Level.Trial)
+	public void createSource() throws Exception {
+		FileSystemManager manager = BenchmarkFiles.manager();
+		FileObject folder = BenchmarkFiles.folder(manager, scheme);
+		source = BenchmarkFiles.randomFile(folder.resolveFile("source.bin"), size);
+		destination = folder.resolveFile("destination.bin");
+		TransferSettings settings = new Download().getTransferSettings();
+		settings.setBufferSize(bufferSize);
+		settings.setMaxBufferSize(bufferSize);
+	}
+
+	@Setup(Level.Invocation)
+	public void resetDestination() throws Exception {
+		destination.delete();
+		download = new Download(source, destination);
+	}
+
+	@Benchmark
+	public Boolean copy() throws Exception {
+		return download.call();
+	}
+}
@@ -0,0 +1,85 @@
+package com.shuffle.turtleget;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link TurtleGet#addDownload(Download, TurtleGet.StartType)} with
+ * the queue and history already holding <code>entries</code> downloads each.
+ * Adding grows the queue, so each iteration starts from a fresh manager and
+ * times a batch of adds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = EnqueueBenchmark.BATCH)
+@Measurement(iterations = 10, batchSize = EnqueueBenchmark.BATCH)
+@Fork(1)
+public class EnqueueBenchmark {
+
+	static final int BATCH = 1000;
+
+	@Param({ "0", "10000", "100000" })
+	public int entries;
+
+	private FileSystemManager manager;
+
+	private FileObject folder;
+
+	private File dataFolder;
+
+	private TurtleGet turtleGet;
+
+	private int next;
+
+	@Setup(Level.Trial)
+	public void createManager() throws Exception {
+		manager = BenchmarkFiles.manager();
+		folder = BenchmarkFiles.folder(manager, "ram");
+	}
+
+	@Setup(Level.Iteration)
+	public void fill() throws Exception {
+		dataFolder = Files.createTempDirectory("turtleget-bench").toFile();
+		turtleGet = new TurtleGet(new File(dataFolder, "data.tg"));
+		long added = System.currentTimeMillis();
+		for (int i = 0; i < entries; i++) {
+			turtleGet.getHistory().add(new DownloadKey("ram:///history/" + i, "ram:///done/" + i), added, 1024, null);
+			turtleGet.addDownload(download(i), TurtleGet.StartType.MANUALLY);
+		}
+		next = entries;
+	}
+
+	@TearDown(Level.Iteration)
+	public void deleteData() {
+		turtleGet.shutdown();
+		BenchmarkFiles.delete(dataFolder);
+	}
+
+	private Download download(int i) throws Exception {
+		return new Download(folder.resolveFile("source" + i + ".bin"), folder.resolveFile("destination" + i + ".bin"));
+	}
+
+	@Benchmark
+	public TurtleGet addDownload() throws Exception {
+		turtleGet.addDownload(download(next++), TurtleGet.StartType.MANUALLY);
+		return turtleGet;
+	}
+}
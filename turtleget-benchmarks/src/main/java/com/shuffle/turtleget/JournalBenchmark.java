@@ -0,0 +1,105 @@
+package com.shuffle.turtleget;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What saving and loading cost with <code>entries</code> downloads in the
+ * queue and as many in the history: one journal append (every saveData), a
+ * compaction into a new snapshot, and a load that reads the snapshot and
+ * replays <code>records</code> journal records
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int entries;
+
+	@Param({ "0", "1000" })
+	public int records;
+
+	private File dataFolder;
+
+	private TurtleGetData data;
+
+	private TurtleGetJournal journal;
+
+	private DownloadData downloadData;
+
+	@Setup(Level.Trial)
+	public void write() throws Exception {
+		dataFolder = Files.createTempDirectory("turtleget-bench").toFile();
+		data = new TurtleGetData();
+		Date added = new Date();
+		for (int i = 0; i < entries; i++) {
+			data.getQueue().add(downloadData("queue", i, added));
+			data.getHistory().add(downloadData("history", i, added));
+		}
+		journal = new TurtleGetJournal(new File(dataFolder, "data.tg"));
+		journal.load();
+		journal.compact(data);
+		for (int i = 0; i < records; i++) {
+			journal.append(TurtleGetJournal.ADD, downloadData("journal", i, added));
+		}
+		downloadData = downloadData("append", 0, added);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws Exception {
+		journal.close();
+		BenchmarkFiles.delete(dataFolder);
+	}
+
+	private static DownloadData downloadData(String folder, int i, Date added) {
+		DownloadData downloadData = new DownloadData("ftp://example.com/" + folder + "/file" + i + ".bin", "file:///downloads/" + folder + "/file" + i + ".bin", added);
+		downloadData.setSize(1024L * i);
+		return downloadData;
+	}
+
+	@Benchmark
+	public void append() throws Exception {
+		journal.append(TurtleGetJournal.ADD, downloadData);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 10)
+	public TurtleGetData load() throws Exception {
+		TurtleGetJournal loaded = new TurtleGetJournal(new File(dataFolder, "data.tg"));
+		try {
+			return loaded.load();
+		} finally {
+			loaded.close();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 10)
+	public void compact() throws Exception {
+		journal.compact(data);
+	}
+}
@@ -0,0 +1,71 @@
+package com.shuffle.turtleget;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.vfs2.FileObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The folder walk behind adding a folder, over a synthetic tree of
+ * <code>width</code>^<code>depth</code> folders with ten files each, starting
+ * with an empty {@link MetadataCache} every time
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WalkBenchmark {
+
+	@Param({ "ram", "file" })
+	public String scheme;
+
+	@Param({ "10" })
+	public int width;
+
+	@Param({ "2", "3" })
+	public int depth;
+
+	@Param({ "1", "4", "16" })
+	public int threads;
+
+	private FileObject root;
+
+	private MetadataCache metadataCache;
+
+	private FolderWalker folderWalker;
+
+	@Setup(Level.Trial)
+	public void createTree() throws Exception {
+		root = BenchmarkFiles.folder(BenchmarkFiles.manager(), scheme);
+		BenchmarkFiles.tree(root, depth, width, 10);
+		metadataCache = new MetadataCache();
+		folderWalker = new FolderWalker(metadataCache);
+		folderWalker.setThreads(threads);
+	}
+
+	@Setup(Level.Invocation)
+	public void clearCache() {
+		metadataCache.clear();
+	}
+
+	@Benchmark
+	public long walk() throws Exception {
+		LongAdder files = new LongAdder();
+		folderWalker.walk(root, file -> files.increment());
+		return files.sum();
+	}
+}
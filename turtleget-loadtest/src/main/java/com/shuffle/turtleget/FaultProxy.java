@@ -0,0 +1,128 @@
+package com.shuffle.turtleget;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * TCP relay that applies {@link Faults} to what a server sends back, for
+ * protocols that keep everything on one connection like SFTP. The latency
+ * delays the first reply after every request of the client.
+ */
+class FaultProxy implements Closeable {
+
+	private static final transient Log log = LogFactory.getLog(FaultProxy.class);
+
+	private final int target;
+
+	private final Faults faults;
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "loadtest-proxy");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	/**
+	 * Starts relaying a free port of the loopback interface to the target port
+	 *
+	 * @param target
+	 * @param faults
+	 * @throws IOException
+	 */
+	public FaultProxy(int target, Faults faults) throws IOException {
+		this.target = target;
+		this.faults = faults;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		executorService.execute(this::accept);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Connections relayed so far
+	 *
+	 * @return
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket client = serverSocket.accept();
+				connections.incrementAndGet();
+				Socket server = new Socket(InetAddress.getLoopbackAddress(), target);
+				client.setTcpNoDelay(true);
+				server.setTcpNoDelay(true);
+				AtomicBoolean requested = new AtomicBoolean();
+				executorService.execute(() -> relay(client, server, requested));
+				executorService.execute(() -> reply(server, client, requested));
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					log.error("Could not relay a connection", e);
+				}
+			}
+		}
+	}
+
+	private void relay(Socket client, Socket server, AtomicBoolean requested) {
+		byte[] buffer = new byte[16 * 1024];
+		try (InputStream in = client.getInputStream(); OutputStream out = server.getOutputStream()) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				requested.set(true);
+				out.write(buffer, 0, read);
+				out.flush();
+			}
+		} catch (IOException e) {
+			log.debug("Relay closed", e);
+		} finally {
+			close(client, server);
+		}
+	}
+
+	private void reply(Socket server, Socket client, AtomicBoolean requested) {
+		try (InputStream in = server.getInputStream(); OutputStream out = client.getOutputStream()) {
+			faults.copy(in, out, requested);
+		} catch (IOException e) {
+			log.debug("Relay closed", e);
+		} finally {
+			close(client, server);
+		}
+	}
+
+	private static void close(Socket... sockets) {
+		for (Socket socket : sockets) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				log.debug("Could not close " + socket, e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executorService.shutdownNow();
+	}
+}
@@ -0,0 +1,174 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Network conditions the load test servers impose on every connection: a
+ * delay before each reply, a bandwidth cap and connections dropped after some
+ * bytes. The defaults impose nothing.
+ */
+class Faults {
+
+	private long latency;
+
+	private long bandwidth;
+
+	private long dropAfter;
+
+	private int drops;
+
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	/**
+	 * Milliseconds to wait before each reply of the server
+	 *
+	 * @return
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	public Faults setLatency(long latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	/**
+	 * Bytes per second of every connection, 0 means unlimited
+	 *
+	 * @return
+	 */
+	public long getBandwidth() {
+		return bandwidth;
+	}
+
+	public Faults setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+		return this;
+	}
+
+	/**
+	 * Bytes a connection sends before it is dropped, 0 never drops
+	 *
+	 * @return
+	 */
+	public long getDropAfter() {
+		return dropAfter;
+	}
+
+	public Faults setDropAfter(long dropAfter) {
+		this.dropAfter = dropAfter;
+		return this;
+	}
+
+	/**
+	 * How many connections are dropped in total, the following ones complete
+	 *
+	 * @return
+	 */
+	public int getDrops() {
+		return drops;
+	}
+
+	public Faults setDrops(int drops) {
+		this.drops = drops;
+		return this;
+	}
+
+	/**
+	 * Connections dropped so far
+	 *
+	 * @return
+	 */
+	public int getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Starts counting the drops again
+	 */
+	public void reset() {
+		dropped.set(0);
+	}
+
+	public void delay() throws InterruptedIOException {
+		sleep(TimeUnit.MILLISECONDS.toNanos(latency));
+	}
+
+	public long copy(InputStream in, OutputStream out) throws IOException {
+		return copy(in, out, null);
+	}
+
+	/**
+	 * Copies the stream at the configured bandwidth, throwing when the
+	 * connection has to be dropped
+	 *
+	 * @param in
+	 * @param out
+	 * @param requested
+	 *            set when the other side sent a request, the next reply is
+	 *            delayed by the latency, null for no delays
+	 * @return bytes copied
+	 * @throws IOException
+	 */
+	public long copy(InputStream in, OutputStream out, AtomicBoolean requested) throws IOException {
+		TokenBucket bucket = new TokenBucket(bandwidth);
+		boolean drop = dropAfter > 0;
+		byte[] buffer = new byte[16 * 1024];
+		long copied = 0;
+		int read;
+		while ((read = in.read(buffer, 0, bucket.chunk(buffer.length))) != -1) {
+			if (drop && copied + read >= dropAfter) {
+				drop = false;
+				if (takeDrop()) {
+					out.write(buffer, 0, (int) (dropAfter - copied));
+					out.flush();
+					throw new SocketException("Dropped after " + dropAfter + " bytes");
+				}
+			}
+			if (requested != null && requested.getAndSet(false)) {
+				delay();
+			}
+			out.write(buffer, 0, read);
+			out.flush();
+			copied += read;
+			sleep(bucket.consume(read));
+		}
+		return copied;
+	}
+
+	private boolean takeDrop() {
+		int count;
+		do {
+			count = dropped.get();
+			if (count >= drops) {
+				return false;
+			}
+		} while (!dropped.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	private static void sleep(long nanos) throws InterruptedIOException {
+		if (nanos <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while delaying");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Faults [latency=" + latency + ", bandwidth=" + bandwidth + ", dropAfter=" + dropAfter + ", drops=" + drops + "]";
+	}
+}
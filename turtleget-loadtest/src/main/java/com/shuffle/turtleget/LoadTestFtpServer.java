@@ -0,0 +1,352 @@
+package com.shuffle.turtleget;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Read only passive mode FTP server over a local folder, any user and password
+ * log in. It speaks just what the VFS FTP provider uses and applies the
+ * {@link Faults} to the replies and the transfers.
+ */
+class LoadTestFtpServer implements Closeable {
+
+	private static final transient Log log = LogFactory.getLog(LoadTestFtpServer.class);
+
+	private static final DateTimeFormatter LIST_DATE = DateTimeFormatter.ofPattern("MMM dd HH:mm", Locale.US).withZone(ZoneId.systemDefault());
+
+	private static final DateTimeFormatter MDTM_DATE = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+	private final Path root;
+
+	private final Faults faults;
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "loadtest-ftp");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private final AtomicInteger transfers = new AtomicInteger();
+
+	/**
+	 * Starts serving on a free port of the loopback interface
+	 *
+	 * @param root
+	 * @param faults
+	 * @throws IOException
+	 */
+	public LoadTestFtpServer(Path root, Faults faults) throws IOException {
+		this.root = root.toAbsolutePath().normalize();
+		this.faults = faults;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		executorService.execute(this::accept);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public Faults getFaults() {
+		return faults;
+	}
+
+	/**
+	 * Control connections accepted so far
+	 *
+	 * @return
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * Files sent so far, complete or not
+	 *
+	 * @return
+	 */
+	public int getTransfers() {
+		return transfers.get();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.incrementAndGet();
+				executorService.execute(() -> serve(socket));
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					log.error("Could not accept a connection", e);
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Session session = new Session(socket)) {
+			session.run();
+		} catch (IOException e) {
+			log.debug("Connection closed", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executorService.shutdownNow();
+	}
+
+	private class Session implements Closeable {
+
+		private final Socket socket;
+
+		private final BufferedReader in;
+
+		private final Writer out;
+
+		private String cwd = "/";
+
+		private ServerSocket passive;
+
+		private long restart;
+
+		Session(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			this.out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		void run() throws IOException {
+			reply("220 turtleget load test");
+			String line;
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String command = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+				String argument = space < 0 ? "" : line.substring(space + 1);
+				faults.delay();
+				switch (command) {
+				case "USER":
+					reply("331 Password required");
+					break;
+				case "PASS":
+					reply("230 Logged in");
+					break;
+				case "SYST":
+					reply("215 UNIX Type: L8");
+					break;
+				case "PWD":
+					reply("257 \"" + cwd + "\"");
+					break;
+				case "CWD":
+					changeDirectory(argument);
+					break;
+				case "CDUP":
+					changeDirectory("..");
+					break;
+				case "TYPE":
+				case "MODE":
+				case "STRU":
+				case "OPTS":
+				case "NOOP":
+					reply("200 OK");
+					break;
+				case "REST":
+					restart = Long.parseLong(argument.trim());
+					reply("350 Restarting at " + restart);
+					break;
+				case "PASV":
+					passive();
+					break;
+				case "LIST":
+				case "NLST":
+					list(argument);
+					break;
+				case "RETR":
+					retrieve(argument);
+					break;
+				case "SIZE":
+					size(argument);
+					break;
+				case "MDTM":
+					modificationTime(argument);
+					break;
+				case "ABOR":
+					reply("226 Aborted");
+					break;
+				case "QUIT":
+					reply("221 Bye");
+					return;
+				default:
+					reply("502 Not implemented");
+				}
+			}
+		}
+
+		private void reply(String reply) throws IOException {
+			out.write(reply + "\r\n");
+			out.flush();
+		}
+
+		private String virtual(String path) {
+			if (path.isEmpty()) {
+				return cwd;
+			}
+			String virtual = path.startsWith("/") ? path : cwd + "/" + path;
+			Path normalized = root.getFileSystem().getPath("/").resolve(virtual.substring(1)).normalize();
+			return normalized.toString().replace('\\', '/');
+		}
+
+		private Path local(String virtual) {
+			Path local = root.resolve(virtual.substring(1)).normalize();
+			return local.startsWith(root) ? local : root;
+		}
+
+		private void changeDirectory(String path) throws IOException {
+			String virtual = virtual(path);
+			if (Files.isDirectory(local(virtual))) {
+				cwd = virtual;
+				reply("250 OK");
+			} else {
+				reply("550 Not a directory");
+			}
+		}
+
+		private void passive() throws IOException {
+			closePassive();
+			passive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			int port = passive.getLocalPort();
+			reply("227 Entering Passive Mode (127,0,0,1," + (port >> 8) + "," + (port & 0xff) + ")");
+		}
+
+		private Socket openData() throws IOException {
+			if (passive == null) {
+				reply("425 Use PASV first");
+				return null;
+			}
+			reply("150 Opening data connection");
+			try {
+				return passive.accept();
+			} finally {
+				closePassive();
+			}
+		}
+
+		private void list(String argument) throws IOException {
+			// ls options like -a come first
+			String path = argument.startsWith("-") ? argument.replaceFirst("^-\\S*\\s*", "") : argument;
+			Path local = local(virtual(path));
+			StringBuilder listing = new StringBuilder();
+			if (Files.isDirectory(local)) {
+				try (Stream<Path> children = Files.list(local)) {
+					children.sorted().forEach(child -> listing.append(listLine(child)));
+				}
+			} else if (Files.exists(local)) {
+				listing.append(listLine(local));
+			}
+			Socket data = openData();
+			if (data == null) {
+				return;
+			}
+			try (Socket socket = data) {
+				socket.getOutputStream().write(listing.toString().getBytes(StandardCharsets.UTF_8));
+			}
+			reply("226 Transfer complete");
+		}
+
+		private String listLine(Path path) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return (attributes.isDirectory() ? "drwxr-xr-x" : "-rw-r--r--") + " 1 user group " + attributes.size() + " "
+						+ LIST_DATE.format(attributes.lastModifiedTime().toInstant()) + " " + path.getFileName() + "\r\n";
+			} catch (IOException e) {
+				return "";
+			}
+		}
+
+		private void retrieve(String argument) throws IOException {
+			Path local = local(virtual(argument));
+			long offset = restart;
+			restart = 0;
+			if (!Files.isRegularFile(local)) {
+				reply("550 No such file");
+				return;
+			}
+			Socket data = openData();
+			if (data == null) {
+				return;
+			}
+			transfers.incrementAndGet();
+			try (Socket socket = data; InputStream file = Files.newInputStream(local); OutputStream stream = socket.getOutputStream()) {
+				file.skip(offset);
+				faults.copy(file, stream);
+			} catch (IOException e) {
+				// a dropped connection takes the control connection with it
+				log.debug("Transfer of " + local + " failed", e);
+				socket.close();
+				return;
+			}
+			reply("226 Transfer complete");
+		}
+
+		private void size(String argument) throws IOException {
+			Path local = local(virtual(argument));
+			if (Files.isRegularFile(local)) {
+				reply("213 " + Files.size(local));
+			} else {
+				reply("550 No such file");
+			}
+		}
+
+		private void modificationTime(String argument) throws IOException {
+			Path local = local(virtual(argument));
+			if (Files.exists(local)) {
+				Instant modified = Files.getLastModifiedTime(local).toInstant();
+				reply("213 " + MDTM_DATE.format(modified));
+			} else {
+				reply("550 No such file");
+			}
+		}
+
+		private void closePassive() throws IOException {
+			if (passive != null) {
+				passive.close();
+				passive = null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			closePassive();
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.shuffle.turtleget;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measurements of one scenario run, written as one flat JSON object per line
+ * of the report so reports of different commits can be read back and
+ * compared without a JSON library
+ */
+class LoadTestResult {
+
+	private static final Pattern FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*(\"([^\"]*)\"|[-\\w.]+)");
+
+	private final Map<String, Object> values = new LinkedHashMap<>();
+
+	public LoadTestResult(String scenario, String protocol) {
+		values.put("scenario", scenario);
+		values.put("protocol", protocol);
+	}
+
+	private LoadTestResult() {
+
+	}
+
+	/**
+	 * Reads a line written by {@link #toJson()}
+	 *
+	 * @param line
+	 * @return null if the line holds no result
+	 */
+	public static LoadTestResult parse(String line) {
+		LoadTestResult result = new LoadTestResult();
+		Matcher matcher = FIELD.matcher(line);
+		while (matcher.find()) {
+			String value = matcher.group(2);
+			result.values.put(matcher.group(1), matcher.group(3) != null ? matcher.group(3) : Double.valueOf(value));
+		}
+		return result.values.containsKey("scenario") && result.values.containsKey("protocol") ? result : null;
+	}
+
+	public String getScenario() {
+		return (String) values.get("scenario");
+	}
+
+	public String getProtocol() {
+		return (String) values.get("protocol");
+	}
+
+	/**
+	 * scenario/protocol, what results are matched by across reports
+	 *
+	 * @return
+	 */
+	public String getKey() {
+		return getScenario() + "/" + getProtocol();
+	}
+
+	public void put(String name, double value) {
+		values.put(name, value);
+	}
+
+	public double get(String name) {
+		Object value = values.get(name);
+		return value instanceof Number ? ((Number) value).doubleValue() : 0;
+	}
+
+	/**
+	 * Exact percentile of the values
+	 *
+	 * @param values
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return 0 with no values
+	 */
+	static double percentile(long[] values, double percentile) {
+		if (values.length == 0) {
+			return 0;
+		}
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(sorted.length * percentile / 100);
+		return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{");
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			if (json.length() > 1) {
+				json.append(", ");
+			}
+			json.append('"').append(entry.getKey()).append("\": ");
+			Object value = entry.getValue();
+			if (value instanceof String) {
+				json.append('"').append(value).append('"');
+			} else {
+				double number = (Double) value;
+				json.append(number == Math.rint(number) ? String.valueOf((long) number) : String.format(Locale.ROOT, "%.3f", number));
+			}
+		}
+		return json.append('}').toString();
+	}
+
+	@Override
+	public String toString() {
+		return toJson();
+	}
+}
@@ -0,0 +1,95 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * One tree downloaded over one protocol under some {@link Faults}
+ */
+class LoadTestScenario {
+
+	interface Tree {
+
+		void build(SyntheticTree tree) throws IOException;
+	}
+
+	private final String name;
+
+	private final Tree tree;
+
+	private Faults faults = new Faults();
+
+	private int concurrentDownloads = 4;
+
+	private int segments = TransferSettings.DEFAULT_SEGMENTS;
+
+	private Set<String> protocols;
+
+	/**
+	 * @param name
+	 *            also the folder of the tree on the servers
+	 * @param tree
+	 */
+	public LoadTestScenario(String name, Tree tree) {
+		this.name = name;
+		this.tree = tree;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Tree getTree() {
+		return tree;
+	}
+
+	public Faults getFaults() {
+		return faults;
+	}
+
+	public LoadTestScenario setFaults(Faults faults) {
+		this.faults = faults;
+		return this;
+	}
+
+	public int getConcurrentDownloads() {
+		return concurrentDownloads;
+	}
+
+	public LoadTestScenario setConcurrentDownloads(int concurrentDownloads) {
+		this.concurrentDownloads = concurrentDownloads;
+		return this;
+	}
+
+	public int getSegments() {
+		return segments;
+	}
+
+	public LoadTestScenario setSegments(int segments) {
+		this.segments = segments;
+		return this;
+	}
+
+	/**
+	 * Whether the scenario runs over the protocol, all of them unless
+	 * restricted
+	 *
+	 * @param protocol
+	 * @return
+	 */
+	public boolean runsOver(String protocol) {
+		return protocols == null || protocols.contains(protocol);
+	}
+
+	public LoadTestScenario setProtocols(String... protocols) {
+		this.protocols = new HashSet<>(Arrays.asList(protocols));
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return name + " [concurrentDownloads=" + concurrentDownloads + ", segments=" + segments + ", " + faults + "]";
+	}
+}
@@ -0,0 +1,135 @@
+package com.shuffle.turtleget;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+/**
+ * Embedded SFTP server over a local folder behind a {@link FaultProxy}, any
+ * user and password log in and the host key is generated for each run.
+ *
+ * Like an OpenSSH server it answers <code>id -u</code> and
+ * <code>id -G</code>, which VFS runs to check permissions before a random
+ * access read, the way a download resumes.
+ */
+class LoadTestSftpServer implements Closeable {
+
+	private final SshServer sshServer = SshServer.setUpDefaultServer();
+
+	private final FaultProxy proxy;
+
+	/**
+	 * Starts serving on a free port of the loopback interface
+	 *
+	 * @param root
+	 * @param faults
+	 * @throws IOException
+	 */
+	public LoadTestSftpServer(Path root, Faults faults) throws IOException {
+		sshServer.setHost("127.0.0.1");
+		sshServer.setPort(0);
+		SimpleGeneratorHostKeyProvider hostKeyProvider = new SimpleGeneratorHostKeyProvider();
+		hostKeyProvider.setAlgorithm("RSA");
+		sshServer.setKeyPairProvider(hostKeyProvider);
+		sshServer.setPasswordAuthenticator((username, password, session) -> true);
+		sshServer.setFileSystemFactory(new VirtualFileSystemFactory(root.toAbsolutePath()));
+		sshServer.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+		sshServer.setCommandFactory((channel, command) -> new IdCommand(command));
+		sshServer.start();
+		proxy = new FaultProxy(sshServer.getPort(), faults);
+	}
+
+	/**
+	 * Port of the proxy, connections to it get the faults
+	 *
+	 * @return
+	 */
+	public int getPort() {
+		return proxy.getPort();
+	}
+
+	/**
+	 * Connections accepted so far
+	 *
+	 * @return
+	 */
+	public int getConnections() {
+		return proxy.getConnections();
+	}
+
+	@Override
+	public void close() throws IOException {
+		proxy.close();
+		sshServer.stop(true);
+	}
+
+	/**
+	 * Every user is uid 0 in group 0, the served files are readable by
+	 * anyone anyway
+	 */
+	private static class IdCommand implements Command {
+
+		private final String command;
+
+		private OutputStream out;
+
+		private OutputStream err;
+
+		private ExitCallback exitCallback;
+
+		public IdCommand(String command) {
+			this.command = command;
+		}
+
+		@Override
+		public void start(ChannelSession channel, Environment env) throws IOException {
+			if (command.equals("id -u") || command.equals("id -G")) {
+				out.write("0\n".getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+				exitCallback.onExit(0);
+			} else {
+				err.write((command + ": command not found\n").getBytes(StandardCharsets.US_ASCII));
+				err.flush();
+				exitCallback.onExit(127);
+			}
+		}
+
+		@Override
+		public void destroy(ChannelSession channel) {
+
+		}
+
+		@Override
+		public void setInputStream(InputStream in) {
+
+		}
+
+		@Override
+		public void setOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void setErrorStream(OutputStream err) {
+			this.err = err;
+		}
+
+		@Override
+		public void setExitCallback(ExitCallback exitCallback) {
+			this.exitCallback = exitCallback;
+		}
+	}
+}
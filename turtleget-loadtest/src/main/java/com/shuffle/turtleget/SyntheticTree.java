@@ -0,0 +1,102 @@
+package com.shuffle.turtleget;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates the trees the load test downloads. Contents come from a seeded
+ * random so every run, on every machine, serves the same bytes.
+ */
+class SyntheticTree {
+
+	private final Path root;
+
+	private final Random random;
+
+	private int files;
+
+	private long bytes;
+
+	public SyntheticTree(Path root, long seed) throws IOException {
+		this.root = Files.createDirectories(root);
+		this.random = new Random(seed);
+	}
+
+	public Path getRoot() {
+		return root;
+	}
+
+	public int getFiles() {
+		return files;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Many small files, a hundred per folder
+	 *
+	 * @param count
+	 * @param minSize
+	 * @param maxSize
+	 * @return
+	 * @throws IOException
+	 */
+	public SyntheticTree tinyFiles(int count, int minSize, int maxSize) throws IOException {
+		for (int i = 0; i < count; i++) {
+			Path folder = Files.createDirectories(root.resolve("tiny" + i / 100));
+			file(folder.resolve("file" + i + ".bin"), minSize + random.nextInt(maxSize - minSize + 1));
+		}
+		return this;
+	}
+
+	public SyntheticTree hugeFiles(int count, long size) throws IOException {
+		for (int i = 0; i < count; i++) {
+			file(root.resolve("huge" + i + ".bin"), size);
+		}
+		return this;
+	}
+
+	/**
+	 * Folders <code>width</code> wide and <code>depth</code> deep with
+	 * <code>filesPerFolder</code> files in each of them
+	 *
+	 * @param depth
+	 * @param width
+	 * @param filesPerFolder
+	 * @param size
+	 * @return
+	 * @throws IOException
+	 */
+	public SyntheticTree deepFolders(int depth, int width, int filesPerFolder, int size) throws IOException {
+		deepFolders(Files.createDirectories(root.resolve("deep")), depth, width, filesPerFolder, size);
+		return this;
+	}
+
+	private void deepFolders(Path folder, int depth, int width, int filesPerFolder, int size) throws IOException {
+		for (int i = 0; i < filesPerFolder; i++) {
+			file(folder.resolve("file" + i + ".bin"), size);
+		}
+		if (depth > 0) {
+			for (int i = 0; i < width; i++) {
+				deepFolders(Files.createDirectories(folder.resolve("folder" + i)), depth - 1, width, filesPerFolder, size);
+			}
+		}
+	}
+
+	private void file(Path file, long size) throws IOException {
+		byte[] buffer = new byte[(int) Math.min(size, 1024 * 1024)];
+		try (OutputStream out = Files.newOutputStream(file)) {
+			for (long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		}
+		files++;
+		bytes += size;
+	}
+}